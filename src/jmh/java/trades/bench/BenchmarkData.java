@@ -0,0 +1,42 @@
+package trades.bench;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import trades.consistency.TradeBuffer;
+import trades.stub.MarketDataGenerator;
+
+/**
+ * Synthetic data of the benchmarks, generated with a fixed seed so every run measures the same input.
+ */
+final class BenchmarkData {
+    final static String INSTRUMENT = "BTC_USDT";
+    final static long SEED = 42;
+    final static long DAY = 86_400_000L;
+
+    private BenchmarkData() {
+    }
+
+    // about the given number of trades spread over one day, the price and quantity decimals of the config default
+    static MarketDataGenerator generator(int trades) {
+        return new MarketDataGenerator(new JsonObject()
+                .put("seed", SEED)
+                .put("instruments", new JsonArray().add(INSTRUMENT))
+                .put("trades_per_second", trades * 1000.0 / DAY)
+                .put("duration", DAY)
+                .put("price_decimals", 8)
+                .put("quantity_decimals", 8));
+    }
+
+    // get-trades response body holding the latest trades of the buffer
+    static Buffer tradesResponse(TradeBuffer trades, int count) {
+        JsonArray data = trades.toJson();
+        JsonArray latest = new JsonArray();
+        for (int i = data.size() - 1; i >= 0 && latest.size() < count; i--) latest.add(data.getValue(i));
+        return new JsonObject()
+                .put("code", 0)
+                .put("method", "public/get-trades")
+                .put("result", new JsonObject().put("instrument_name", INSTRUMENT).put("data", latest))
+                .toBuffer();
+    }
+}
@@ -0,0 +1,26 @@
+package trades.bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run the benchmarks with the JMH command line options, exporting the results as JSON to
+ * {@code jmh-result.json} unless another result format or file is given.
+ * <p>
+ * {@code java -jar target/benchmarks.jar [benchmark regex] [JMH options]}
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions options = new CommandLineOptions(args);
+        ChainedOptionsBuilder builder = new OptionsBuilder()
+                .parent(options)
+                .jvmArgsAppend("-Dlogback.configurationFile=logback-jmh.xml");
+        if (!options.getResultFormat().hasValue()) builder.resultFormat(ResultFormatType.JSON);
+        if (!options.getResult().hasValue()) builder.result("jmh-result.json");
+        if (options.getIncludes().isEmpty()) builder.include("trades\\.bench\\..*");
+        new Runner(builder.build()).run();
+    }
+}
@@ -0,0 +1,55 @@
+package trades.bench;
+
+import org.openjdk.jmh.annotations.*;
+import trades.consistency.*;
+import trades.stub.MarketDataGenerator;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Check one day of trades against the candles of a timeframe, with the sweep over sorted trades (serial and on
+ * the common fork-join pool) and with the multi-resolution aggregation (aggregation included in the measurement).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConsistencyCheckerBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    int trades;
+
+    @Param({"1m", "1h", "1D"})
+    String timeframe;
+
+    private TradeBuffer tradeBuffer;
+    private CandleBuffer candles;
+    private long period;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        MarketDataGenerator generator = BenchmarkData.generator(trades);
+        tradeBuffer = generator.getTrades(BenchmarkData.INSTRUMENT);
+        tradeBuffer.sort();
+        candles = generator.getCandles(BenchmarkData.INSTRUMENT, timeframe);
+        period = Timeframe.parse(timeframe);
+    }
+
+    @Benchmark
+    public CheckReport sweep() {
+        return ConsistencyChecker.check(BenchmarkData.INSTRUMENT, timeframe, candles, tradeBuffer);
+    }
+
+    @Benchmark
+    public CheckReport parallel() {
+        return ConsistencyChecker.checkParallel(BenchmarkData.INSTRUMENT, timeframe, candles, tradeBuffer, ForkJoinPool.commonPool());
+    }
+
+    @Benchmark
+    public CheckReport aggregated() {
+        CandleAggregator aggregator = new CandleAggregator(tradeBuffer).prepare(period);
+        return ConsistencyChecker.check(BenchmarkData.INSTRUMENT, timeframe, candles, aggregator);
+    }
+}
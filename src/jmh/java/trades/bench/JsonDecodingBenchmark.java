@@ -0,0 +1,48 @@
+package trades.bench;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+import trades.consistency.JsonRecordDecoder;
+import trades.consistency.TradeBuffer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decode a get-trades response into a trade buffer, streamed by {@link JsonRecordDecoder} and, for comparison,
+ * through a {@link JsonObject} tree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonDecodingBenchmark {
+    // trades per response, 200 is a get-trades page
+    @Param({"200", "10000"})
+    int records;
+
+    private Buffer body;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        body = BenchmarkData.tradesResponse(BenchmarkData.generator(records * 2).getTrades(BenchmarkData.INSTRUMENT), records);
+    }
+
+    @Benchmark
+    public TradeBuffer streaming() {
+        TradeBuffer trades = new TradeBuffer();
+        JsonRecordDecoder.forTrades(trades).decode(body);
+        return trades;
+    }
+
+    @Benchmark
+    public TradeBuffer tree() {
+        TradeBuffer trades = new TradeBuffer();
+        for (Object trade : new JsonObject(body).getJsonObject("result").getJsonArray("data")) {
+            trades.add((JsonObject) trade);
+        }
+        return trades;
+    }
+}
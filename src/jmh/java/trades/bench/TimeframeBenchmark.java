@@ -0,0 +1,40 @@
+package trades.bench;
+
+import org.openjdk.jmh.annotations.*;
+import trades.consistency.Timeframe;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeframeBenchmark {
+    // 2022 in UTC
+    private final static long FROM = 1_640_995_200_000L, YEAR = 365 * 86_400_000L;
+
+    @Param({"1m", "5m", "15m", "30m", "1h", "4h", "6h", "12h", "1D", "7D", "14D", "1M"})
+    String timeframe;
+
+    private Timeframe.Boundaries boundaries;
+    private long timestamp;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        boundaries = Timeframe.of(timeframe).boundaries(FROM, FROM + YEAR);
+    }
+
+    @Benchmark
+    public long parse() {
+        return Timeframe.parse(timeframe);
+    }
+
+    // bucket of a trade within the precomputed range
+    @Benchmark
+    public long bucket() {
+        timestamp = (timestamp + 7_919_993L) % YEAR;
+        return boundaries.end(boundaries.start(FROM + 1 + timestamp));
+    }
+}
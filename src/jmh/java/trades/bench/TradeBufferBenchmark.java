@@ -0,0 +1,62 @@
+package trades.bench;
+
+import org.openjdk.jmh.annotations.*;
+import trades.consistency.TradeBuffer;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deduplicate and sort trades collected from overlapping get-trades pages: every page holds the latest trades
+ * newest first, so the collected trades arrive in descending runs with duplicates between the pages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TradeBufferBenchmark {
+    private final static int PAGE = 200;
+
+    @Param({"10000", "100000", "1000000"})
+    int trades;
+
+    // fraction of each page already returned by the previous page
+    @Param({"0.5"})
+    double overlap;
+
+    private long[] id, timestamp, price, quantity;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(BenchmarkData.SEED);
+        int step = Math.max(1, (int) (PAGE * (1 - overlap)));
+        int pages = (trades - PAGE) / step + 1;
+        int size = pages * PAGE;
+        id = new long[size];
+        timestamp = new long[size];
+        price = new long[size];
+        quantity = new long[size];
+
+        int n = 0;
+        for (int page = 0; page < pages; page++) {
+            // newest first, trade i happens at i * 100 ms
+            for (int i = page * step + PAGE - 1; i >= page * step; i--) {
+                id[n] = i + 1;
+                timestamp[n] = i * 100L;
+                price[n] = 100_00000000L + random.nextInt(1_000_000);
+                quantity[n] = 1 + random.nextInt(100_000_000);
+                n++;
+            }
+        }
+    }
+
+    @Benchmark
+    public TradeBuffer dedupAndSort() {
+        TradeBuffer buffer = new TradeBuffer();
+        for (int i = 0; i < id.length; i++) buffer.add(id[i], timestamp[i], price[i], quantity[i]);
+        buffer.sort();
+        return buffer;
+    }
+}
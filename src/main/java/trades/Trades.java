@@ -1,4 +1,40 @@
 package trades;
 
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import trades.service.ReconciliationVerticle;
+import trades.util.Config;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+// run the reconciliation service, with config.json of the classpath or the config file of the first argument
 public class Trades {
+    private final static Logger log = LoggerFactory.getLogger(Trades.class);
+
+    public static void main(String[] args) throws Exception {
+        JsonObject config = args.length > 0 ? Config.loadConfigFile(args[0]) : Config.loadConfig("config.json");
+        if (Objects.isNull(config)) throw new IllegalArgumentException("Config file not found");
+
+        JsonObject service = config.getJsonObject("service", new JsonObject());
+        Vertx vertx = Vertx.vertx(new VertxOptions().setWorkerPoolSize(service.getInteger("worker_pool_size", 10)));
+        vertx.deployVerticle(new ReconciliationVerticle(), new DeploymentOptions().setConfig(config))
+                .onFailure(e -> {
+                    log.error("Reconciliation service failed to start", e);
+                    vertx.close();
+                });
+
+        // undeploy on SIGTERM so the metrics file is written and connections are closed
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                vertx.close().toCompletionStage().toCompletableFuture().get(30, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                log.error("Reconciliation service failed to stop", e);
+            }
+        }));
+    }
 }
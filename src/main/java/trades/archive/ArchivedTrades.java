@@ -0,0 +1,101 @@
+package trades.archive;
+
+import trades.consistency.InstrumentScale;
+import trades.consistency.TradeSeries;
+
+import java.util.List;
+
+/**
+ * Trades of consecutive mapped segments seen as one {@link TradeSeries}, read in place from the mapped files.
+ */
+final class ArchivedTrades implements TradeSeries {
+    private final TradeArchive.Segment[] segments;
+    // index of the first trade of each segment, plus the total size
+    private final int[] starts;
+    private final int priceScale;
+    private final int quantityScale;
+    // segment of the last read, a hint only: parallel checks read the series from several threads
+    private int cursor;
+
+    ArchivedTrades(List<TradeArchive.Segment> segments) {
+        this.segments = segments.toArray(new TradeArchive.Segment[0]);
+        this.starts = new int[this.segments.length + 1];
+        for (int i = 0; i < this.segments.length; i++) {
+            starts[i + 1] = starts[i] + this.segments[i].size();
+        }
+        this.priceScale = this.segments.length > 0 ? this.segments[0].priceScale : InstrumentScale.DEFAULT.getPriceScale();
+        this.quantityScale = this.segments.length > 0 ? this.segments[0].quantityScale : InstrumentScale.DEFAULT.getQuantityScale();
+        for (TradeArchive.Segment segment : this.segments) {
+            if (segment.priceScale != priceScale || segment.quantityScale != quantityScale) {
+                throw new IllegalArgumentException("Archived segments have different scales");
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return starts[segments.length];
+    }
+
+    @Override
+    public int priceScale() {
+        return priceScale;
+    }
+
+    @Override
+    public int quantityScale() {
+        return quantityScale;
+    }
+
+    @Override
+    public long id(int index) {
+        return get(index, 0);
+    }
+
+    @Override
+    public long timestamp(int index) {
+        return get(index, 1);
+    }
+
+    @Override
+    public long price(int index) {
+        return get(index, 2);
+    }
+
+    @Override
+    public long quantity(int index) {
+        return get(index, 3);
+    }
+
+    @Override
+    public int firstAfter(long time) {
+        for (int i = 0; i < segments.length; i++) {
+            int first = segments[i].firstAfter(time);
+            if (first < segments[i].to) return starts[i] + first - segments[i].from;
+        }
+        return size();
+    }
+
+    private long get(int index, int field) {
+        // reads are mostly sequential, so the segment of the previous read usually holds the index too
+        int segment = cursor;
+        if (index < starts[segment] || index >= starts[segment + 1]) {
+            segment = segment + 1 < segments.length && index >= starts[segment + 1] && index < starts[segment + 2]
+                    ? segment + 1 : search(index);
+            cursor = segment;
+        }
+        TradeArchive.Segment s = segments[segment];
+        return s.get(s.from + index - starts[segment], field);
+    }
+
+    // last segment starting at or before the index, segments are never empty
+    private int search(int index) {
+        int segment = 0, high = segments.length - 1;
+        while (segment < high) {
+            int mid = (segment + high + 1) >>> 1;
+            if (starts[mid] <= index) segment = mid;
+            else high = mid - 1;
+        }
+        return segment;
+    }
+}
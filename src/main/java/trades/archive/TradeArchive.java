@@ -0,0 +1,476 @@
+package trades.archive;
+
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import trades.consistency.TradeBuffer;
+import trades.consistency.TradeSeries;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * On-disk archive of collected trades, one segment file per instrument and UTC day.
+ * <p>
+ * A segment ({@code {directory}/{instrument}/{yyyy-MM-dd}.trades}) is a 16 byte header (magic, price scale,
+ * quantity scale, index interval) followed by fixed-width 32 byte records (id, t, p, q) in (timestamp, id) order.
+ * Next to it, {@code .idx} holds the timestamp of every {@code index_interval}-th record, a sparse index used to
+ * find the first record of a window without scanning the segment. Replays map the segments read-only, so the
+ * trades are read from the page cache and never copied onto the heap.
+ * <p>
+ * A segment is open for appends until a later day of its instrument is appended, and at most
+ * {@code max_open_segments} are open at all, the least recently used is closed first. Trades older than the last one
+ * of their segment are merged into place, rewriting the records from the first of them on.
+ * <p>
+ * Options are the {@code archive} section of config.json.
+ */
+public final class TradeArchive implements Closeable {
+    private final static Logger log = LoggerFactory.getLogger(TradeArchive.class);
+
+    final static int MAGIC = 0x54524431; // "TRD1"
+    final static int HEADER = 16;
+    final static int RECORD = 32;
+    final static long DAY = 86_400_000L;
+
+    private final Path directory;
+    private final int indexInterval;
+    private final int maxOpenSegments;
+    // access ordered, the eldest writer is the least recently used
+    private final LinkedHashMap<String, SegmentWriter> writers = new LinkedHashMap<>(16, 0.75f, true);
+
+    public TradeArchive(Path directory, int indexInterval) {
+        this(directory, indexInterval, 32);
+    }
+
+    public TradeArchive(Path directory, int indexInterval, int maxOpenSegments) {
+        if (indexInterval < 1) throw new IllegalArgumentException("Index interval must be positive: " + indexInterval);
+        this.directory = directory;
+        this.indexInterval = indexInterval;
+        this.maxOpenSegments = Math.max(1, maxOpenSegments);
+    }
+
+    public static TradeArchive fromConfig(JsonObject options) {
+        if (Objects.isNull(options)) options = new JsonObject();
+        return new TradeArchive(Paths.get(options.getString("directory", "archive")), options.getInteger("index_interval", 1024),
+                options.getInteger("max_open_segments", 32));
+    }
+
+    /**
+     * Append the trades that are not archived yet. Trades older than the last archived trade of their day are merged
+     * into place, those already archived are skipped.
+     *
+     * @return the number of trades archived
+     */
+    public synchronized int append(String instrument, TradeBuffer trades) {
+        trades.sort();
+        int appended = 0, merged = 0;
+        try {
+            SegmentWriter writer = null;
+            for (int i = 0; i < trades.size(); i++) {
+                long day = Math.floorDiv(trades.timestamp(i), DAY);
+                if (Objects.isNull(writer) || writer.day != day) {
+                    if (Objects.nonNull(writer)) merged += writer.flush();
+                    writer = writer(instrument, day, trades.priceScale(), trades.quantityScale());
+                }
+                if (writer.append(trades.id(i), trades.timestamp(i), trades.price(i), trades.quantity(i))) appended++;
+            }
+            if (Objects.nonNull(writer)) {
+                merged += writer.flush();
+                // the days before the latest one are over, later trades of them are rare enough to reopen the segment
+                closeBefore(instrument, writer.day);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Archive append failed: " + instrument, e);
+        }
+        if (merged > 0) {
+            log.info("Archived {} of {} trades of {}, {} out of order", appended + merged, trades.size(), instrument, merged);
+        } else {
+            log.info("Archived {} of {} trades of {}", appended, trades.size(), instrument);
+        }
+        return appended + merged;
+    }
+
+    // segments open for appends
+    public synchronized int getOpenSegments() {
+        return writers.size();
+    }
+
+    /**
+     * Trades of the instrument with timestamp in {@code (from, to]}, read from the mapped segments.
+     * The view stays valid after the archive is closed, later appends are not visible in it.
+     */
+    public TradeSeries replay(String instrument, long from, long to) {
+        List<Segment> segments = new ArrayList<>();
+        try {
+            // the trade at "from" is excluded, so the first day is the one of the next millisecond
+            for (long day = Math.floorDiv(from + 1, DAY); day <= Math.floorDiv(to, DAY); day++) {
+                Path path = segmentPath(instrument, day);
+                if (!Files.exists(path)) continue;
+                synchronized (this) {
+                    SegmentWriter writer = writers.get(path.toString());
+                    if (Objects.nonNull(writer)) writer.flush();
+                }
+                Segment segment = Segment.map(path, indexPath(path));
+                int lo = segment.firstAfter(from), hi = segment.firstAfter(to);
+                if (lo < hi) segments.add(segment.slice(lo, hi));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Archive replay failed: " + instrument, e);
+        }
+        return new ArchivedTrades(segments);
+    }
+
+    // UTC days with a segment of the instrument, as epoch days
+    public long[] days(String instrument) {
+        Path dir = directory.resolve(instrument);
+        if (!Files.isDirectory(dir)) return new long[0];
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(p -> p.getFileName().toString())
+                    .filter(name -> name.endsWith(".trades"))
+                    .mapToLong(name -> LocalDate.parse(name.substring(0, name.length() - ".trades".length())).toEpochDay())
+                    .sorted()
+                    .toArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        for (SegmentWriter writer : writers.values()) close(writer);
+        writers.clear();
+    }
+
+    private void closeBefore(String instrument, long day) {
+        Iterator<SegmentWriter> iterator = writers.values().iterator();
+        while (iterator.hasNext()) {
+            SegmentWriter writer = iterator.next();
+            if (!writer.instrument.equals(instrument) || writer.day >= day) continue;
+            iterator.remove();
+            close(writer);
+        }
+    }
+
+    private static void close(SegmentWriter writer) {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            log.error("Archive segment close error: {}", writer.path, e);
+        }
+    }
+
+    private Path segmentPath(String instrument, long day) {
+        return directory.resolve(instrument).resolve(LocalDate.ofEpochDay(day) + ".trades");
+    }
+
+    private static Path indexPath(Path segment) {
+        String name = segment.getFileName().toString();
+        return segment.resolveSibling(name.substring(0, name.length() - ".trades".length()) + ".idx");
+    }
+
+    private SegmentWriter writer(String instrument, long day, int priceScale, int quantityScale) throws IOException {
+        Path path = segmentPath(instrument, day);
+        SegmentWriter writer = writers.get(path.toString());
+        if (Objects.isNull(writer)) {
+            writer = new SegmentWriter(instrument, path, indexPath(path), day, priceScale, quantityScale, indexInterval);
+            writers.put(path.toString(), writer);
+            if (writers.size() > maxOpenSegments) {
+                Iterator<SegmentWriter> eldest = writers.values().iterator();
+                close(eldest.next());
+                eldest.remove();
+            }
+        } else if (writer.priceScale != priceScale || writer.quantityScale != quantityScale) {
+            throw new IllegalArgumentException("Trades of " + path + " have different scales");
+        }
+        return writer;
+    }
+
+    // appends the records of one segment and its sparse index
+    private static final class SegmentWriter implements Closeable {
+        final String instrument;
+        final Path path;
+        final long day;
+        final int priceScale;
+        final int quantityScale;
+        final int indexInterval;
+        final FileChannel records;
+        final FileChannel index;
+        final ByteBuffer recordBuffer = ByteBuffer.allocate(RECORD * 1024);
+        final ByteBuffer indexBuffer = ByteBuffer.allocate(8 * 64);
+        final ByteBuffer key = ByteBuffer.allocate(16);
+        // trades older than the last record, merged into place on flush
+        final TradeBuffer late;
+        long size;
+        long lastTimestamp = Long.MIN_VALUE, lastId = Long.MIN_VALUE;
+
+        SegmentWriter(String instrument, Path path, Path indexPath, long day, int priceScale, int quantityScale, int indexInterval) throws IOException {
+            Files.createDirectories(path.getParent());
+            this.instrument = instrument;
+            this.path = path;
+            this.day = day;
+            this.records = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            if (records.size() < HEADER) {
+                header.putInt(MAGIC).putInt(priceScale).putInt(quantityScale).putInt(indexInterval).flip();
+                records.write(header, 0);
+                this.priceScale = priceScale;
+                this.quantityScale = quantityScale;
+                this.indexInterval = indexInterval;
+            } else {
+                records.read(header, 0);
+                header.flip();
+                if (header.getInt() != MAGIC) throw new IOException("Not a trade segment: " + path);
+                this.priceScale = header.getInt();
+                this.quantityScale = header.getInt();
+                this.indexInterval = header.getInt();
+            }
+            if (this.priceScale != priceScale || this.quantityScale != quantityScale) {
+                records.close();
+                throw new IllegalArgumentException("Trades of " + path + " have different scales");
+            }
+            this.late = new TradeBuffer(16, priceScale, quantityScale);
+
+            // a record torn by a crash is overwritten
+            size = (records.size() - HEADER) / RECORD;
+            if (size > 0) {
+                ByteBuffer last = ByteBuffer.allocate(RECORD);
+                records.read(last, HEADER + (size - 1) * RECORD);
+                last.flip();
+                lastId = last.getLong();
+                lastTimestamp = last.getLong();
+            }
+            records.position(HEADER + size * RECORD);
+
+            this.index = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            // entries lost by a crash are rebuilt from the records
+            rebuildIndex(Long.MAX_VALUE);
+        }
+
+        // false if the trade is older than the last record, it is then merged on flush unless already archived
+        boolean append(long id, long timestamp, long price, long quantity) throws IOException {
+            if (timestamp < lastTimestamp || (timestamp == lastTimestamp && id <= lastId)) {
+                late.add(id, timestamp, price, quantity);
+                return false;
+            }
+            if (size % indexInterval == 0) {
+                indexBuffer.putLong(timestamp);
+                if (!indexBuffer.hasRemaining()) writeIndex();
+            }
+            recordBuffer.putLong(id).putLong(timestamp).putLong(price).putLong(quantity);
+            if (!recordBuffer.hasRemaining()) writeRecords();
+            lastId = id;
+            lastTimestamp = timestamp;
+            size++;
+            return true;
+        }
+
+        // returns the number of late trades merged
+        int flush() throws IOException {
+            writeRecords();
+            writeIndex();
+            return merge();
+        }
+
+        // insert the late trades not archived yet, the records from the first of them on are rewritten
+        private int merge() throws IOException {
+            if (late.size() == 0) return 0;
+            late.sort();
+            TradeBuffer missing = new TradeBuffer(late.size(), priceScale, quantityScale);
+            long from = size;
+            for (int i = 0; i < late.size(); i++) {
+                long position = search(late.timestamp(i), late.id(i));
+                if (position < size && readKey(position) && key.getLong(0) == late.id(i) && key.getLong(8) == late.timestamp(i)) continue;
+                missing.add(late.id(i), late.timestamp(i), late.price(i), late.quantity(i));
+                from = Math.min(from, position);
+            }
+            late.clear();
+            if (missing.size() == 0) return 0;
+
+            ByteBuffer tail = ByteBuffer.allocate(Math.toIntExact((size - from) * RECORD));
+            while (tail.hasRemaining()) {
+                if (records.read(tail, HEADER + from * RECORD + tail.position()) < 0) break;
+            }
+            tail.flip();
+            ByteBuffer merged = ByteBuffer.allocate(tail.limit() + missing.size() * RECORD);
+            int next = 0;
+            while (tail.hasRemaining() || next < missing.size()) {
+                if (next < missing.size() && (!tail.hasRemaining() || missing.timestamp(next) < tail.getLong(tail.position() + 8)
+                        || (missing.timestamp(next) == tail.getLong(tail.position() + 8) && missing.id(next) < tail.getLong(tail.position())))) {
+                    merged.putLong(missing.id(next)).putLong(missing.timestamp(next)).putLong(missing.price(next)).putLong(missing.quantity(next));
+                    next++;
+                } else {
+                    for (int field = 0; field < 4; field++) merged.putLong(tail.getLong());
+                }
+            }
+            merged.flip();
+            long position = HEADER + from * RECORD;
+            while (merged.hasRemaining()) position += records.write(merged, position);
+            size += missing.size();
+            records.position(HEADER + size * RECORD);
+
+            // the entries of the records before the first late trade are still valid
+            rebuildIndex((from + indexInterval - 1) / indexInterval);
+            return missing.size();
+        }
+
+        // first record at or after (timestamp, id)
+        private long search(long timestamp, long id) throws IOException {
+            long lo = 0, hi = size;
+            while (lo < hi) {
+                long mid = (lo + hi) >>> 1;
+                readKey(mid);
+                long recordTimestamp = key.getLong(8);
+                if (recordTimestamp < timestamp || (recordTimestamp == timestamp && key.getLong(0) < id)) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        // read the (id, t) of the record into the key buffer
+        private boolean readKey(long record) throws IOException {
+            key.clear();
+            while (key.hasRemaining()) {
+                if (records.read(key, HEADER + record * RECORD + key.position()) < 0) break;
+            }
+            return !key.hasRemaining();
+        }
+
+        // keep the first entries of the index, rebuild the others from the records
+        private void rebuildIndex(long valid) throws IOException {
+            long entries = (size + indexInterval - 1) / indexInterval;
+            index.truncate(Math.min(index.size(), Math.min(valid, entries) * 8));
+            index.position(index.size());
+            for (long entry = index.size() / 8; entry < entries; entry++) {
+                readKey(entry * indexInterval);
+                indexBuffer.putLong(key.getLong(8));
+                if (!indexBuffer.hasRemaining()) writeIndex();
+            }
+            writeIndex();
+        }
+
+        private void writeRecords() throws IOException {
+            recordBuffer.flip();
+            while (recordBuffer.hasRemaining()) records.write(recordBuffer);
+            recordBuffer.clear();
+        }
+
+        private void writeIndex() throws IOException {
+            indexBuffer.flip();
+            while (indexBuffer.hasRemaining()) index.write(indexBuffer);
+            indexBuffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                records.close();
+                index.close();
+            }
+        }
+    }
+
+    // records [from, to) of a read-only mapped segment
+    static final class Segment {
+        // a mapping holds at most 2 GB, the records are mapped in chunks of 2^CHUNK_SHIFT records (1 GB)
+        final static int CHUNK_SHIFT = 25;
+        final static int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+        final MappedByteBuffer[] chunks;
+        final long[] index;
+        final int indexInterval;
+        final int priceScale;
+        final int quantityScale;
+        final int from, to;
+
+        private Segment(MappedByteBuffer[] chunks, long[] index, int indexInterval, int priceScale, int quantityScale, int from, int to) {
+            this.chunks = chunks;
+            this.index = index;
+            this.indexInterval = indexInterval;
+            this.priceScale = priceScale;
+            this.quantityScale = quantityScale;
+            this.from = from;
+            this.to = to;
+        }
+
+        static Segment map(Path path, Path indexPath) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long length = channel.size();
+                ByteBuffer header = ByteBuffer.allocate(HEADER);
+                while (header.hasRemaining()) {
+                    if (channel.read(header, header.position()) < 0) break;
+                }
+                if (header.hasRemaining() || header.getInt(0) != MAGIC) throw new IOException("Not a trade segment: " + path);
+                int priceScale = header.getInt(4), quantityScale = header.getInt(8), indexInterval = header.getInt(12);
+                long records = (length - HEADER) / RECORD;
+                // replays index trades with an int
+                if (records > Integer.MAX_VALUE) throw new IOException("Segment of more than " + Integer.MAX_VALUE + " trades: " + path);
+                int size = (int) records;
+
+                MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((records + CHUNK_MASK) >>> CHUNK_SHIFT)];
+                for (int i = 0; i < chunks.length; i++) {
+                    long first = (long) i << CHUNK_SHIFT;
+                    long count = Math.min(CHUNK_MASK + 1L, records - first);
+                    chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER + first * RECORD, count * RECORD);
+                }
+
+                // the sparse index is small, one timestamp per interval
+                int entries = (int) ((records + indexInterval - 1) / indexInterval);
+                long[] index = new long[entries];
+                int loaded = 0;
+                if (Files.exists(indexPath)) {
+                    byte[] bytes = Files.readAllBytes(indexPath);
+                    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                    while (loaded < entries && buffer.remaining() >= 8) index[loaded++] = buffer.getLong();
+                }
+                Segment segment = new Segment(chunks, index, indexInterval, priceScale, quantityScale, 0, size);
+                for (; loaded < entries; loaded++) index[loaded] = segment.get(loaded * indexInterval, 1);
+                return segment;
+            }
+        }
+
+        Segment slice(int sliceFrom, int sliceTo) {
+            return new Segment(chunks, index, indexInterval, priceScale, quantityScale, sliceFrom, sliceTo);
+        }
+
+        int size() {
+            return to - from;
+        }
+
+        long get(int record, int field) {
+            return chunks[record >>> CHUNK_SHIFT].getLong((record & CHUNK_MASK) * RECORD + field * 8);
+        }
+
+        // first record of the segment with timestamp after the time, the index narrows the search to one interval
+        int firstAfter(long time) {
+            int lo = 0, hi = index.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (index[mid] <= time) lo = mid + 1;
+                else hi = mid;
+            }
+            int low = Math.max(from, lo == 0 ? 0 : (lo - 1) * indexInterval);
+            int high = lo == index.length ? to : Math.min(to, lo * indexInterval);
+            if (low >= high) return Math.min(low, to);
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (get(mid, 1) <= time) low = mid + 1;
+                else high = mid;
+            }
+            return low;
+        }
+    }
+}
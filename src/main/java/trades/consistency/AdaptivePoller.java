@@ -0,0 +1,223 @@
+package trades.consistency;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import trades.util.HttpClient;
+import trades.util.ReconciliationMetrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Poll the get-trades API of one instrument at an interval adapted to how busy the instrument is.
+ * <p>
+ * A get-trades page only holds the latest trades, so consecutive pages must overlap for no trade to be lost
+ * between them. Each page is compared with the previous one by trade id ({@code d}) and timestamp ({@code t}):
+ * <ul>
+ *     <li>no common trade and every trade newer than the previous page: trades were likely lost in between,
+ *     a gap is counted and the interval is shortened</li>
+ *     <li>less than {@code low_overlap} of the page already seen: the interval is shortened</li>
+ *     <li>more than {@code high_overlap} of the page already seen: the interval is lengthened</li>
+ * </ul>
+ * The interval stays within {@code min_interval} and {@code max_interval} of the {@code polling} section of
+ * config.json. Every trade of every page is passed to the handler, duplicates included.
+ */
+public class AdaptivePoller {
+    private final static Logger log = LoggerFactory.getLogger(AdaptivePoller.class);
+
+    private final Vertx vertx;
+    private final Map<String, JsonObject> apiInfo;
+    private final String instrument;
+    private final InstrumentScale scale;
+    private final long minInterval;
+    private final long maxInterval;
+    private final double lowOverlap;
+    private final double highOverlap;
+
+    // ids of the previous and of the current page, swapped after each page
+    private LongHashSet previousIds = new LongHashSet();
+    private LongHashSet pageIds = new LongHashSet();
+    private long previousMaxTimestamp = Long.MIN_VALUE;
+    private long pageMinTimestamp, pageMaxTimestamp;
+    private int pageOverlap;
+
+    private JsonRecordDecoder.RecordHandler handler = record -> { };
+    private long interval;
+    private long timerId = -1;
+    private boolean running;
+    private boolean paused;
+    private long startTime;
+    private long requests;
+    private long gaps;
+
+    public AdaptivePoller(Vertx vertx, Map<String, JsonObject> apiInfo, String instrument, InstrumentScale scale, JsonObject options) {
+        if (Objects.isNull(options)) options = new JsonObject();
+        this.vertx = vertx;
+        this.apiInfo = apiInfo;
+        this.instrument = instrument;
+        this.scale = scale;
+        this.minInterval = Math.max(1, options.getLong("min_interval", 500L));
+        this.maxInterval = Math.max(minInterval, options.getLong("max_interval", 10_000L));
+        this.lowOverlap = options.getDouble("low_overlap", 0.2);
+        this.highOverlap = options.getDouble("high_overlap", 0.8);
+        this.interval = clamp(options.getLong("interval", 2000L));
+    }
+
+    // poll at a fixed interval, the gaps are still counted
+    public static AdaptivePoller fixed(Vertx vertx, Map<String, JsonObject> apiInfo, String instrument, InstrumentScale scale, long interval) {
+        JsonObject options = new JsonObject().put("interval", interval).put("min_interval", interval).put("max_interval", interval);
+        return new AdaptivePoller(vertx, apiInfo, instrument, scale, options);
+    }
+
+    public AdaptivePoller handler(JsonRecordDecoder.RecordHandler handler) {
+        this.handler = Objects.requireNonNull(handler);
+        return this;
+    }
+
+    public AdaptivePoller start() {
+        if (!running) {
+            running = true;
+            startTime = System.currentTimeMillis();
+            schedule();
+        }
+        return this;
+    }
+
+    public void stop() {
+        running = false;
+        if (timerId >= 0) vertx.cancelTimer(timerId);
+        timerId = -1;
+    }
+
+    // polls are skipped while paused
+    public void pause() {
+        paused = true;
+    }
+
+    public void resume() {
+        paused = false;
+    }
+
+    /**
+     * Poll from now on until the duration has passed, instead of {@link #start()}.
+     *
+     * @return completes once the last response is handled, fails with the first failed request
+     */
+    public Future<Void> run(long duration) {
+        Promise<Void> promise = Promise.promise();
+        long deadline = System.currentTimeMillis() + duration;
+        next(deadline, promise);
+        return promise.future();
+    }
+
+    /**
+     * Fetch one get-trades page, compare it with the previous page and adapt the interval.
+     *
+     * @return completes with the number of trades in the response
+     */
+    public Future<Integer> poll() {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("instrument_name", instrument);
+
+        if (startTime == 0) startTime = System.currentTimeMillis();
+        requests++;
+        pageIds.clear();
+        pageOverlap = 0;
+        pageMinTimestamp = Long.MAX_VALUE;
+        pageMaxTimestamp = Long.MIN_VALUE;
+
+        JsonRecordDecoder decoder = JsonRecordDecoder.forTrades(scale.getPriceScale(), scale.getQuantityScale(), this::record);
+        return HttpClient.getTrades(vertx, apiInfo, parameters, decoder)
+                .onFailure(e -> log.error("Get trade api error: {}", instrument, e))
+                .onSuccess(this::adapt);
+    }
+
+    // current interval between two polls in milliseconds
+    public long getInterval() {
+        return interval;
+    }
+
+    // pages that had no trade in common with the previous page
+    public long getGapCount() {
+        return gaps;
+    }
+
+    public long getRequests() {
+        return requests;
+    }
+
+    // requests per second since the first poll
+    public double getRequestRate() {
+        long elapsed = System.currentTimeMillis() - startTime;
+        return startTime == 0 || elapsed <= 0 ? 0 : requests * 1000.0 / elapsed;
+    }
+
+    private void schedule() {
+        timerId = vertx.setTimer(interval, id -> {
+            if (!running) return;
+            if (paused) {
+                schedule();
+            } else {
+                poll().onComplete(ar -> {
+                    if (running) schedule();
+                });
+            }
+        });
+    }
+
+    private void next(long deadline, Promise<Void> promise) {
+        poll().onFailure(promise::fail).onSuccess(records -> {
+            long wait = deadline - System.currentTimeMillis();
+            if (wait < interval) {
+                promise.complete();
+            } else {
+                vertx.setTimer(interval, id -> next(deadline, promise));
+            }
+        });
+    }
+
+    private void record(long[] trade) {
+        if (pageIds.add(trade[0]) && previousIds.contains(trade[0])) pageOverlap++;
+        pageMinTimestamp = Math.min(pageMinTimestamp, trade[1]);
+        pageMaxTimestamp = Math.max(pageMaxTimestamp, trade[1]);
+        handler.handle(trade);
+    }
+
+    private void adapt(int records) {
+        int size = pageIds.size();
+        boolean first = previousMaxTimestamp == Long.MIN_VALUE;
+        if (size == 0) {
+            // nothing traded, nothing to lose
+            interval = clamp(interval * 2);
+            return;
+        }
+
+        if (!first) {
+            double overlap = (double) pageOverlap / size;
+            if (pageOverlap == 0 && pageMinTimestamp > previousMaxTimestamp) {
+                gaps++;
+                ReconciliationMetrics.gap(instrument, "rest");
+                log.warn("Trade gap of {} between {} and {}, poll interval: {} ms", instrument, previousMaxTimestamp, pageMinTimestamp, interval);
+                interval = clamp(interval / 2);
+            } else if (overlap < lowOverlap) {
+                interval = clamp(interval / 2);
+            } else if (overlap > highOverlap) {
+                interval = clamp(interval + interval / 2);
+            }
+        }
+
+        LongHashSet ids = previousIds;
+        previousIds = pageIds;
+        pageIds = ids;
+        previousMaxTimestamp = pageMaxTimestamp;
+    }
+
+    private long clamp(long value) {
+        return Math.max(minInterval, Math.min(maxInterval, value));
+    }
+}
@@ -0,0 +1,185 @@
+package trades.consistency;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Multi-resolution candle aggregation of one trade set.
+ * <p>
+ * The trades are bucketed into 1m candles in a single scan. Every coarser resolution is derived by merging the
+ * candles of the coarsest resolution already built that divides it (5m from 1m, 15m from 5m, ..., 1D from 12h,
+ * 7D from 1D), so checking all timeframes costs one scan plus cheap merges. Buckets are aligned to the UTC epoch,
+ * and a bucket starting at {@code s} holds the trades with timestamp in {@code (s, s + period]}, the same
+ * convention as {@link ConsistencyChecker}.
+ */
+public final class CandleAggregator {
+    public final static long BASE_PERIOD = 60_000L;
+
+    // non-empty buckets of one resolution, ordered by start
+    private static final class Level {
+        final long period;
+        final long[] start;
+        final long[] open;
+        final long[] close;
+        final long[] high;
+        final long[] low;
+        final long[] volume;
+        final long[] count;
+        int size;
+
+        Level(long period, int capacity) {
+            this.period = period;
+            this.start = new long[capacity];
+            this.open = new long[capacity];
+            this.close = new long[capacity];
+            this.high = new long[capacity];
+            this.low = new long[capacity];
+            this.volume = new long[capacity];
+            this.count = new long[capacity];
+        }
+
+        void append(long bucket, Ohlcv ohlcv) {
+            start[size] = bucket;
+            open[size] = ohlcv.getOpen();
+            close[size] = ohlcv.getClose();
+            high[size] = ohlcv.getHigh();
+            low[size] = ohlcv.getLow();
+            volume[size] = ohlcv.getVolume();
+            count[size] = ohlcv.getCount();
+            size++;
+        }
+
+        // index of the first bucket starting at or after the time
+        int firstFrom(long time) {
+            int lo = 0, hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (start[mid] < time) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+    }
+
+    private final TreeMap<Long, Level> levels = new TreeMap<>();
+    private final int priceScale;
+    private final int quantityScale;
+
+    public CandleAggregator(TradeBuffer trades) {
+        trades.sort();
+        this.priceScale = trades.priceScale();
+        this.quantityScale = trades.quantityScale();
+        levels.put(BASE_PERIOD, bucket(trades));
+    }
+
+    public int priceScale() {
+        return priceScale;
+    }
+
+    public int quantityScale() {
+        return quantityScale;
+    }
+
+    // start of the bucket of the given period holding the timestamp
+    public static long bucketStart(long timestamp, long period) {
+        return Math.floorDiv(timestamp - 1, period) * period;
+    }
+
+    /**
+     * Build the resolutions of the given periods, finest first so that each one is merged from the previous.
+     * Periods that are not a multiple of 1m are ignored, their candles are merged from 1m on query.
+     */
+    public synchronized CandleAggregator prepare(long... periods) {
+        long[] sorted = periods.clone();
+        Arrays.sort(sorted);
+        for (long period : sorted) level(period);
+        return this;
+    }
+
+    /**
+     * Aggregate the trades in {@code (begin, end]} into the accumulator, using the coarsest prepared resolution
+     * whose buckets tile the range.
+     */
+    public Ohlcv aggregate(long begin, long end, Ohlcv ohlcv) {
+        ohlcv.reset();
+        Level level = tiling(begin, end);
+        if (level == null) throw new IllegalArgumentException("Range (" + begin + ", " + end + "] is not aligned to 1m");
+
+        for (int i = level.firstFrom(begin); i < level.size && level.start[i] < end; i++) {
+            ohlcv.merge(level.open[i], level.close[i], level.high[i], level.low[i], level.volume[i], level.count[i]);
+        }
+        return ohlcv;
+    }
+
+    private synchronized Level tiling(long begin, long end) {
+        for (Level level : levels.descendingMap().values()) {
+            if (Math.floorMod(begin, level.period) == 0 && Math.floorMod(end, level.period) == 0) return level;
+        }
+        return null;
+    }
+
+    private Level level(long period) {
+        Level level = levels.get(period);
+        if (level != null || period % BASE_PERIOD != 0) return level;
+
+        // merge from the coarsest finer resolution that divides this one
+        Level source = levels.get(BASE_PERIOD);
+        for (Map.Entry<Long, Level> entry : levels.headMap(period, false).entrySet()) {
+            if (period % entry.getKey() == 0) source = entry.getValue();
+        }
+
+        level = merge(source, period);
+        levels.put(period, level);
+        return level;
+    }
+
+    private static Level bucket(TradeBuffer trades) {
+        int size = trades.size();
+        int buckets = 0;
+        long last = 0;
+        for (int i = 0; i < size; i++) {
+            long bucket = bucketStart(trades.timestamp(i), BASE_PERIOD);
+            if (i == 0 || bucket != last) buckets++;
+            last = bucket;
+        }
+
+        Level level = new Level(BASE_PERIOD, buckets);
+        Ohlcv ohlcv = new Ohlcv();
+        for (int i = 0; i < size; i++) {
+            long bucket = bucketStart(trades.timestamp(i), BASE_PERIOD);
+            if (i > 0 && bucket != last) {
+                level.append(last, ohlcv);
+                ohlcv.reset();
+            }
+            last = bucket;
+            ohlcv.add(trades.price(i), trades.quantity(i));
+        }
+        if (size > 0) level.append(last, ohlcv);
+        return level;
+    }
+
+    private static Level merge(Level source, long period) {
+        int buckets = 0;
+        long last = 0;
+        for (int i = 0; i < source.size; i++) {
+            long bucket = Math.floorDiv(source.start[i], period) * period;
+            if (i == 0 || bucket != last) buckets++;
+            last = bucket;
+        }
+
+        Level level = new Level(period, buckets);
+        Ohlcv ohlcv = new Ohlcv();
+        for (int i = 0; i < source.size; i++) {
+            long bucket = Math.floorDiv(source.start[i], period) * period;
+            if (i > 0 && bucket != last) {
+                level.append(last, ohlcv);
+                ohlcv.reset();
+            }
+            last = bucket;
+            ohlcv.merge(source.open[i], source.close[i], source.high[i], source.low[i], source.volume[i], source.count[i]);
+        }
+        if (source.size > 0) level.append(last, ohlcv);
+        return level;
+    }
+}
@@ -0,0 +1,161 @@
+package trades.consistency;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.Arrays;
+
+/**
+ * Columnar store of candlesticks in response order.
+ * <p>
+ * Open, close, high and low use the price scale of the instrument, volume the quantity scale. A candle value
+ * with more fraction digits than the scale can never equal a trade aggregate and is stored as
+ * {@link #NOT_REPRESENTABLE}.
+ */
+public final class CandleBuffer {
+    public final static long NOT_REPRESENTABLE = Long.MIN_VALUE;
+
+    private final int priceScale;
+    private final int quantityScale;
+
+    private long[] timestamp;
+    private long[] open;
+    private long[] close;
+    private long[] high;
+    private long[] low;
+    private long[] volume;
+    private int size;
+
+    public CandleBuffer() {
+        this(InstrumentScale.DEFAULT);
+    }
+
+    public CandleBuffer(InstrumentScale scale) {
+        this(256, scale.getPriceScale(), scale.getQuantityScale());
+    }
+
+    public CandleBuffer(int capacity, int priceScale, int quantityScale) {
+        this.priceScale = priceScale;
+        this.quantityScale = quantityScale;
+        this.timestamp = new long[capacity];
+        this.open = new long[capacity];
+        this.close = new long[capacity];
+        this.high = new long[capacity];
+        this.low = new long[capacity];
+        this.volume = new long[capacity];
+    }
+
+    // add a candle of the get-candlestick response
+    public void add(JsonObject candle) {
+        add(candle.getLong("t"),
+                toScaled(candle.getValue("o"), priceScale),
+                toScaled(candle.getValue("c"), priceScale),
+                toScaled(candle.getValue("h"), priceScale),
+                toScaled(candle.getValue("l"), priceScale),
+                toScaled(candle.getValue("v"), quantityScale));
+    }
+
+    // add a candle with scaled values
+    public void add(long candleTimestamp, long candleOpen, long candleClose, long candleHigh, long candleLow, long candleVolume) {
+        if (size == timestamp.length) grow();
+        timestamp[size] = candleTimestamp;
+        open[size] = candleOpen;
+        close[size] = candleClose;
+        high[size] = candleHigh;
+        low[size] = candleLow;
+        volume[size] = candleVolume;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int priceScale() {
+        return priceScale;
+    }
+
+    public int quantityScale() {
+        return quantityScale;
+    }
+
+    public long timestamp(int index) {
+        return timestamp[index];
+    }
+
+    public long open(int index) {
+        return open[index];
+    }
+
+    public long close(int index) {
+        return close[index];
+    }
+
+    public long high(int index) {
+        return high[index];
+    }
+
+    public long low(int index) {
+        return low[index];
+    }
+
+    public long volume(int index) {
+        return volume[index];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    // drop the candles added after the first ones, such as those of a page that failed to decode
+    public void truncate(int size) {
+        if (size >= 0 && size < this.size) this.size = size;
+    }
+
+    // drop the first candles, the oldest ones of a sorted buffer
+    public void removeFirst(int count) {
+        count = Math.min(count, size);
+        if (count <= 0) return;
+        for (long[] column : new long[][]{timestamp, open, close, high, low, volume}) {
+            System.arraycopy(column, count, column, 0, size - count);
+        }
+        size -= count;
+    }
+
+    // copy the candles into get-candlestick format, for diagnostics only
+    public JsonArray toJson() {
+        JsonArray candles = new JsonArray();
+        for (int i = 0; i < size; i++) {
+            candles.add(new JsonObject()
+                    .put("t", timestamp[i])
+                    .put("o", format(open[i], priceScale))
+                    .put("c", format(close[i], priceScale))
+                    .put("h", format(high[i], priceScale))
+                    .put("l", format(low[i], priceScale))
+                    .put("v", format(volume[i], quantityScale)));
+        }
+        return candles;
+    }
+
+    public static String format(long value, int scale) {
+        return value == NOT_REPRESENTABLE ? "more than " + scale + " fraction digits" : FixedPoint.toString(value, scale);
+    }
+
+    static long toScaled(Object value, int scale) {
+        try {
+            return TradeBuffer.toScaled(value, scale);
+        } catch (ArithmeticException e) {
+            return NOT_REPRESENTABLE;
+        }
+    }
+
+    private void grow() {
+        int capacity = Math.max(16, timestamp.length << 1);
+        timestamp = Arrays.copyOf(timestamp, capacity);
+        open = Arrays.copyOf(open, capacity);
+        close = Arrays.copyOf(close, capacity);
+        high = Arrays.copyOf(high, capacity);
+        low = Arrays.copyOf(low, capacity);
+        volume = Arrays.copyOf(volume, capacity);
+    }
+}
@@ -0,0 +1,47 @@
+package trades.consistency;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class CheckReport {
+    private final String instrument;
+    private final String timeframe;
+    private final List<String> mismatches = new ArrayList<>();
+    private int candles;
+
+    public CheckReport(String instrument, String timeframe) {
+        this.instrument = instrument;
+        this.timeframe = timeframe;
+    }
+
+    void addCandle() {
+        candles++;
+    }
+
+    void addMismatch(String mismatch) {
+        mismatches.add(mismatch);
+    }
+
+    public String getInstrument() {
+        return instrument;
+    }
+
+    public String getTimeframe() {
+        return timeframe;
+    }
+
+    // number of candles that have been checked
+    public int getCandles() {
+        return candles;
+    }
+
+    // one entry per failed candle, in candle response order
+    public List<String> getMismatches() {
+        return Collections.unmodifiableList(mismatches);
+    }
+
+    public boolean isPass() {
+        return mismatches.isEmpty();
+    }
+}
@@ -0,0 +1,285 @@
+package trades.consistency;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import trades.util.ReconciliationMetrics;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.StringJoiner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Reconcile candlesticks against the trades they were built from.
+ * <p>
+ * Trades are sorted by timestamp once, candles are sorted by start time, and both are
+ * walked together in a single merge pass, so a check costs O(n log n + m) for n trades and m candles.
+ * When several timeframes are checked against the same trades, a {@link CandleAggregator} built once
+ * replaces the pass. For very long histories, {@link #checkParallel} sweeps candle ranges on a {@link ForkJoinPool}.
+ * A candle starting at {@code t} covers the trades with timestamp in {@code (t, end]}, where the end of a fixed
+ * timeframe is {@code t + period} and that of a month is the next UTC month boundary (see {@link Timeframe}).
+ */
+public final class ConsistencyChecker {
+    private final static Logger log = LoggerFactory.getLogger(ConsistencyChecker.class);
+
+    private ConsistencyChecker() {
+    }
+
+    public static CheckReport check(String instrument, String timeframe, CandleBuffer candles, TradeBuffer trades) {
+        // sort the trade columns in place by timestamp, trade id breaks ties
+        if (Objects.nonNull(trades)) trades.sort();
+        return check(instrument, timeframe, candles, (TradeSeries) trades);
+    }
+
+    // check against trades already sorted by timestamp, such as a replay of the trade archive
+    public static CheckReport check(String instrument, String timeframe, CandleBuffer candles, TradeSeries trades) {
+        CheckReport report = validate(instrument, timeframe, candles, trades);
+        if (!report.isPass()) return report;
+        if (candles.priceScale() != trades.priceScale() || candles.quantityScale() != trades.quantityScale()) {
+            throw new IllegalArgumentException("Candles and trades of " + instrument + " have different scales");
+        }
+
+        // end of every candle, computed once for the timeframe
+        long[] ends = ends(timeframe, candles);
+
+        // visit candles by start time, results are reported in response order
+        int[] order = order(candles);
+        String[] results = new String[order.length];
+        sweep(candles, trades, order, 0, order.length, ends, results);
+
+        return report(report, candles, ends, results);
+    }
+
+    /**
+     * Same as {@link #check(String, String, CandleBuffer, TradeBuffer)}, with the candles split into ranges that are
+     * swept on the pool. The report is identical to the serial one.
+     */
+    public static CheckReport checkParallel(String instrument, String timeframe, CandleBuffer candles, TradeBuffer trades, ForkJoinPool pool) {
+        if (Objects.nonNull(trades)) trades.sort();
+        return checkParallel(instrument, timeframe, candles, (TradeSeries) trades, pool);
+    }
+
+    public static CheckReport checkParallel(String instrument, String timeframe, CandleBuffer candles, TradeSeries trades, ForkJoinPool pool) {
+        CheckReport report = validate(instrument, timeframe, candles, trades);
+        if (!report.isPass()) return report;
+        if (candles.priceScale() != trades.priceScale() || candles.quantityScale() != trades.quantityScale()) {
+            throw new IllegalArgumentException("Candles and trades of " + instrument + " have different scales");
+        }
+
+        long[] ends = ends(timeframe, candles);
+
+        int[] order = order(candles);
+        String[] results = new String[order.length];
+        pool.invoke(new SweepTask(candles, trades, order, 0, order.length, ends, results));
+
+        // mismatches are merged in candle order by the serial report
+        return report(report, candles, ends, results);
+    }
+
+    public static CheckReport check(String instrument, String timeframe, CandleBuffer candles, CandleAggregator aggregator) {
+        CheckReport report = validate(instrument, timeframe, candles, aggregator);
+        if (!report.isPass()) return report;
+        if (candles.priceScale() != aggregator.priceScale() || candles.quantityScale() != aggregator.quantityScale()) {
+            throw new IllegalArgumentException("Candles and trades of " + instrument + " have different scales");
+        }
+
+        long[] ends = ends(timeframe, candles);
+
+        String[] results = new String[candles.size()];
+        Ohlcv ohlcv = new Ohlcv();
+        for (int index = 0; index < results.length; index++) {
+            results[index] = compare(candles, index, aggregator.aggregate(candles.timestamp(index), ends[index], ohlcv));
+        }
+
+        return report(report, candles, ends, results);
+    }
+
+    // end of every candle, O(1) for fixed timeframes, a search of the month boundaries of the whole response otherwise
+    private static long[] ends(String timeframe, CandleBuffer candles) {
+        Timeframe period = Timeframe.of(timeframe);
+        long[] ends = new long[candles.size()];
+        if (ends.length == 0) return ends;
+        if (period.isFixed()) {
+            for (int i = 0; i < ends.length; i++) ends[i] = candles.timestamp(i) + period.getMillis();
+            return ends;
+        }
+
+        long first = Long.MAX_VALUE, last = Long.MIN_VALUE;
+        for (int i = 0; i < ends.length; i++) {
+            first = Math.min(first, candles.timestamp(i));
+            last = Math.max(last, candles.timestamp(i));
+        }
+        Timeframe.Boundaries boundaries = period.boundaries(first, last);
+        for (int i = 0; i < ends.length; i++) ends[i] = boundaries.end(candles.timestamp(i));
+        return ends;
+    }
+
+    // candle indexes by start time, candles with the same start keep their response order
+    private static int[] order(CandleBuffer candles) {
+        int size = candles.size();
+        int[] order = new int[size];
+        boolean ascending = true, descending = true;
+        for (int i = 1; i < size; i++) {
+            long previous = candles.timestamp(i - 1), current = candles.timestamp(i);
+            if (current < previous) ascending = false;
+            if (current >= previous) descending = false;
+        }
+        // responses are sorted one way or the other, newest first like get-trades or oldest first
+        if (ascending || descending) {
+            for (int i = 0; i < size; i++) order[i] = ascending ? i : size - 1 - i;
+            return order;
+        }
+
+        // stable bottom-up merge sort of the indexes
+        for (int i = 0; i < size; i++) order[i] = i;
+        int[] merged = new int[size];
+        for (int width = 1; width < size; width <<= 1) {
+            for (int low = 0; low < size; low += width << 1) {
+                int mid = Math.min(low + width, size), high = Math.min(low + (width << 1), size);
+                int i = low, j = mid, k = low;
+                while (i < mid && j < high) {
+                    merged[k++] = candles.timestamp(order[j]) < candles.timestamp(order[i]) ? order[j++] : order[i++];
+                }
+                while (i < mid) merged[k++] = order[i++];
+                while (j < high) merged[k++] = order[j++];
+            }
+            int[] swap = order;
+            order = merged;
+            merged = swap;
+        }
+        return order;
+    }
+
+    // compare the candles order[from, to) with the sorted trades in one merge pass
+    private static void sweep(CandleBuffer candles, TradeSeries trades, int[] order, int from, int to, long[] ends, String[] results) {
+        if (from >= to) return;
+        int size = trades.size();
+        int cursor = trades.firstAfter(candles.timestamp(order[from]));
+        Ohlcv ohlcv = new Ohlcv();
+        for (int i = from; i < to; i++) {
+            int index = order[i];
+            long begin = candles.timestamp(index);
+            long end = ends[index];
+
+            // candles never overlap in a well-formed response, rewind only if this one does
+            if (cursor > 0 && trades.timestamp(cursor - 1) > begin) cursor = trades.firstAfter(begin);
+            while (cursor < size && trades.timestamp(cursor) <= begin) cursor++;
+
+            // aggregate O,C,H,L,V of the trades in (begin, end]
+            ohlcv.reset();
+            while (cursor < size && trades.timestamp(cursor) <= end) {
+                ohlcv.add(trades.price(cursor), trades.quantity(cursor));
+                cursor++;
+            }
+            results[index] = compare(candles, index, ohlcv);
+        }
+    }
+
+    // sweep of a candle range, split in two halves holding about the same number of trades until it is small
+    private static final class SweepTask extends RecursiveAction {
+        private final static long serialVersionUID = 1L;
+        private final static int MIN_CANDLES = 64;
+        private final static int MIN_TRADES = 1 << 14;
+
+        private final CandleBuffer candles;
+        private final TradeSeries trades;
+        private final int[] order;
+        private final int from, to;
+        private final long[] ends;
+        private final String[] results;
+
+        SweepTask(CandleBuffer candles, TradeSeries trades, int[] order, int from, int to, long[] ends, String[] results) {
+            this.candles = candles;
+            this.trades = trades;
+            this.order = order;
+            this.from = from;
+            this.to = to;
+            this.ends = ends;
+            this.results = results;
+        }
+
+        @Override
+        protected void compute() {
+            int firstTrade = trades.firstAfter(candles.timestamp(order[from]));
+            int lastTrade = trades.firstAfter(ends[order[to - 1]]);
+            if (to - from <= MIN_CANDLES || lastTrade - firstTrade <= MIN_TRADES) {
+                sweep(candles, trades, order, from, to, ends, results);
+                return;
+            }
+
+            // the first candle starting at or after the median trade of the range
+            long median = trades.timestamp((firstTrade + lastTrade) >>> 1);
+            int low = from + 1, high = to - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (candles.timestamp(order[mid]) < median) low = mid + 1;
+                else high = mid;
+            }
+
+            invokeAll(new SweepTask(candles, trades, order, from, low, ends, results),
+                    new SweepTask(candles, trades, order, low, to, ends, results));
+        }
+    }
+
+    private static CheckReport validate(String instrument, String timeframe, CandleBuffer candles, Object trades) {
+        log.debug("Run consistency Checker: {}({})", instrument, timeframe);
+
+        CheckReport report = new CheckReport(instrument, timeframe);
+        // input check
+        if (Objects.isNull(instrument) || Objects.isNull(timeframe) || Objects.isNull(candles) || Objects.isNull(trades)) {
+            log.error("Incomplete parameter, instrument: {}, period: {}, candles: {}, trades: {}", instrument, timeframe,
+                    candles == null ? null : candles.size(), trades == null ? null : "present", new IOException());
+            report.addMismatch("Incomplete parameter");
+        }
+        return report;
+    }
+
+    private static CheckReport report(CheckReport report, CandleBuffer candles, long[] ends, String[] results) {
+        for (int i = 0; i < results.length; i++) {
+            long begin = candles.timestamp(i);
+            report.addCandle();
+            if (Objects.isNull(results[i])) {
+                log.debug("Case ({}-{}): PASS", begin, ends[i]);
+            } else {
+                String caseName = "Case (" + begin + "-" + ends[i] + ")";
+                log.error("{}({}) {}: {}", report.getInstrument(), report.getTimeframe(), caseName, results[i]);
+                report.addMismatch(caseName + ": " + results[i]);
+                ReconciliationMetrics.mismatch(report.getInstrument(), results[i]);
+            }
+        }
+        ReconciliationMetrics.candles(report.getInstrument(), results.length);
+        log.info("Checked {}({}): {} candles, {} mismatches", report.getInstrument(), report.getTimeframe(),
+                report.getCandles(), report.getMismatches().size());
+        return report;
+    }
+
+    // Verify O,C,H,L,V with candle data, returns null if all values match
+    static String compare(CandleBuffer candles, int index, Ohlcv trades) {
+        int priceScale = candles.priceScale(), quantityScale = candles.quantityScale();
+        if (trades.getVolume() != candles.volume(index)) {
+            return "volume doesn't match: " + format(trades.getVolume(), quantityScale) + " (expected: " + format(candles.volume(index), quantityScale) + ")";
+        }
+
+        // a candle without any trade in its period can only fail
+        if (trades.getCount() == 0) {
+            return "high doesn't match: none (expected: " + format(candles.high(index), priceScale) + "), "
+                    + "low doesn't match: none (expected: " + format(candles.low(index), priceScale) + ")";
+        }
+
+        StringJoiner misMatch = new StringJoiner(", ");
+        if (trades.getOpen() != candles.open(index))
+            misMatch.add("open doesn't match: " + format(trades.getOpen(), priceScale) + " (expected: " + format(candles.open(index), priceScale) + ")");
+        if (trades.getClose() != candles.close(index))
+            misMatch.add("close doesn't match: " + format(trades.getClose(), priceScale) + " (expected: " + format(candles.close(index), priceScale) + ")");
+        if (trades.getHigh() != candles.high(index))
+            misMatch.add("high doesn't match: " + format(trades.getHigh(), priceScale) + " (expected: " + format(candles.high(index), priceScale) + ")");
+        if (trades.getLow() != candles.low(index))
+            misMatch.add("low doesn't match: " + format(trades.getLow(), priceScale) + " (expected: " + format(candles.low(index), priceScale) + ")");
+        return misMatch.length() > 0 ? misMatch.toString() : null;
+    }
+
+    private static String format(long value, int scale) {
+        return CandleBuffer.format(value, scale);
+    }
+}
@@ -0,0 +1,146 @@
+package trades.consistency;
+
+import java.math.BigDecimal;
+
+/**
+ * Exact decimal arithmetic on scaled longs.
+ * <p>
+ * A value {@code v} with scale {@code s} is stored as the long {@code v * 10^s}, so sums, minimum, maximum
+ * and equality of values with the same scale are plain long operations that never allocate. Parsing
+ * fails with {@link ArithmeticException} instead of rounding when a value has more fraction digits than
+ * the scale, and every operation fails the same way on overflow.
+ */
+public final class FixedPoint {
+    public final static int MAX_SCALE = 18;
+
+    private final static long[] POWERS_OF_TEN = new long[MAX_SCALE + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+
+    private FixedPoint() {
+    }
+
+    public static long parse(CharSequence text, int scale) {
+        return parse(text, 0, text.length(), scale);
+    }
+
+    // parse a JSON number ("-12.5", "3", "1.0E-5") in [start, end) of the text
+    public static long parse(CharSequence text, int start, int end, int scale) {
+        checkScale(scale);
+        int i = start;
+        if (i >= end) throw new NumberFormatException("Empty decimal");
+
+        boolean negative = text.charAt(i) == '-';
+        if (negative || text.charAt(i) == '+') i++;
+
+        // trailing zeros are held back, they only matter once another digit follows
+        long mantissa = 0;
+        int fractionDigits = 0, pendingZeros = 0;
+        boolean point = false, digits = false;
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits = true;
+                if (point) fractionDigits++;
+                if (c == '0') {
+                    pendingZeros++;
+                } else {
+                    mantissa = Math.addExact(multiplyExact(mantissa, pendingZeros + 1), c - '0');
+                    pendingZeros = 0;
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else if (c == 'e' || c == 'E') {
+                break;
+            } else {
+                throw new NumberFormatException("Not a decimal: " + text.subSequence(start, end));
+            }
+        }
+        if (!digits) throw new NumberFormatException("Not a decimal: " + text.subSequence(start, end));
+
+        int exponent = 0;
+        if (i < end) {
+            i++;
+            boolean negativeExponent = i < end && text.charAt(i) == '-';
+            if (i < end && (negativeExponent || text.charAt(i) == '+')) i++;
+            if (i >= end) throw new NumberFormatException("Not a decimal: " + text.subSequence(start, end));
+            for (; i < end; i++) {
+                char c = text.charAt(i);
+                if (c < '0' || c > '9' || exponent > 1000) {
+                    throw new NumberFormatException("Not a decimal: " + text.subSequence(start, end));
+                }
+                exponent = exponent * 10 + (c - '0');
+            }
+            if (negativeExponent) exponent = -exponent;
+        }
+
+        // mantissa * 10^(pendingZeros + exponent - fractionDigits), moved to the requested scale
+        long shift = (long) scale + pendingZeros + exponent - fractionDigits;
+        long value;
+        if (mantissa == 0) {
+            value = 0;
+        } else if (shift >= 0) {
+            value = multiplyExact(mantissa, shift);
+        } else {
+            if (-shift > MAX_SCALE || mantissa % POWERS_OF_TEN[(int) -shift] != 0) {
+                throw new ArithmeticException("More than " + scale + " fraction digits: " + text.subSequence(start, end));
+            }
+            value = mantissa / POWERS_OF_TEN[(int) -shift];
+        }
+        return negative ? -value : value;
+    }
+
+    // exact value of a double as printed by Double.toString, the same value BigDecimal.valueOf gives
+    public static long valueOf(double value, int scale) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) throw new NumberFormatException("Not a decimal: " + value);
+        return parse(Double.toString(value), scale);
+    }
+
+    public static long add(long a, long b) {
+        return Math.addExact(a, b);
+    }
+
+    public static long subtract(long a, long b) {
+        return Math.subtractExact(a, b);
+    }
+
+    public static long min(long a, long b) {
+        return Math.min(a, b);
+    }
+
+    public static long max(long a, long b) {
+        return Math.max(a, b);
+    }
+
+    // change the scale of a value, fails if fraction digits would be lost
+    public static long rescale(long value, int fromScale, int toScale) {
+        checkScale(fromScale);
+        checkScale(toScale);
+        if (toScale >= fromScale) return multiplyExact(value, toScale - fromScale);
+
+        long divisor = POWERS_OF_TEN[fromScale - toScale];
+        if (value % divisor != 0) throw new ArithmeticException("More than " + toScale + " fraction digits");
+        return value / divisor;
+    }
+
+    public static BigDecimal toBigDecimal(long value, int scale) {
+        return BigDecimal.valueOf(value, scale);
+    }
+
+    public static String toString(long value, int scale) {
+        return BigDecimal.valueOf(value, scale).stripTrailingZeros().toPlainString();
+    }
+
+    private static long multiplyExact(long value, long powerOfTen) {
+        if (value == 0) return 0;
+        if (powerOfTen > MAX_SCALE) throw new ArithmeticException("Decimal overflow");
+        return Math.multiplyExact(value, POWERS_OF_TEN[(int) powerOfTen]);
+    }
+
+    private static void checkScale(int scale) {
+        if (scale < 0 || scale > MAX_SCALE) throw new IllegalArgumentException("Unsupported scale: " + scale);
+    }
+}
@@ -0,0 +1,62 @@
+package trades.consistency;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.Objects;
+
+/**
+ * Number of fraction digits used to store the prices and quantities of one instrument as {@link FixedPoint} values.
+ */
+public final class InstrumentScale {
+    public final static InstrumentScale DEFAULT = new InstrumentScale(TradeBuffer.DEFAULT_SCALE, TradeBuffer.DEFAULT_SCALE);
+
+    private final int priceScale;
+    private final int quantityScale;
+
+    public InstrumentScale(int priceScale, int quantityScale) {
+        if (priceScale < 0 || priceScale > FixedPoint.MAX_SCALE || quantityScale < 0 || quantityScale > FixedPoint.MAX_SCALE) {
+            throw new IllegalArgumentException("Unsupported scale, price: " + priceScale + ", quantity: " + quantityScale);
+        }
+        this.priceScale = priceScale;
+        this.quantityScale = quantityScale;
+    }
+
+    // scale of an instrument in config.json "scale", falls back to the "default" entry
+    public static InstrumentScale fromConfig(JsonObject config, String instrument) {
+        JsonObject scales = Objects.isNull(config) ? null : config.getJsonObject("scale");
+        if (Objects.isNull(scales)) return DEFAULT;
+
+        JsonObject scale = scales.getJsonObject(instrument, scales.getJsonObject("default"));
+        if (Objects.isNull(scale)) return DEFAULT;
+        return new InstrumentScale(
+                scale.getInteger("price", DEFAULT.priceScale),
+                scale.getInteger("quantity", DEFAULT.quantityScale));
+    }
+
+    // scale of an instrument in config.json "scale", else the scale the exchange lists for it, else the "default" entry
+    public static InstrumentScale fromConfig(JsonObject config, String instrument, InstrumentScale listed) {
+        JsonObject scales = Objects.isNull(config) ? null : config.getJsonObject("scale");
+        if (Objects.nonNull(listed) && (Objects.isNull(scales) || !scales.containsKey(instrument))) return listed;
+        return fromConfig(config, instrument);
+    }
+
+    // scale of an instrument entry of the get-instruments response
+    public static InstrumentScale fromInstrument(JsonObject instrument) {
+        return new InstrumentScale(
+                instrument.getInteger("price_decimals", DEFAULT.priceScale),
+                instrument.getInteger("quantity_decimals", DEFAULT.quantityScale));
+    }
+
+    public int getPriceScale() {
+        return priceScale;
+    }
+
+    public int getQuantityScale() {
+        return quantityScale;
+    }
+
+    @Override
+    public String toString() {
+        return "price: " + priceScale + ", quantity: " + quantityScale;
+    }
+}
@@ -0,0 +1,347 @@
+package trades.consistency;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.WriteStream;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+
+/**
+ * Streaming decoder of the {@code result.data} records of an exchange API response.
+ * <p>
+ * Response chunks are fed into a non-blocking Jackson parser as they arrive, and each record is handed to the
+ * {@link RecordHandler} as soon as its closing brace is parsed, without building a JSON tree. The configured
+ * fields of a record are decoded straight from the parser text buffer into longs: integers as is, decimals as
+ * {@link FixedPoint} values with the field scale. Decoding errors are reported by {@link #getFailure()} rather than
+ * failing the stream, so the body of an error response is still read, and its first bytes are kept to diagnose it.
+ * Decoders into a {@link TradeBuffer} or {@link CandleBuffer} truncate it back to its size before the first record
+ * on a failure, so a failing page adds nothing.
+ */
+public final class JsonRecordDecoder implements WriteStream<Buffer> {
+    private final static JsonFactory factory = new JsonFactory();
+
+    private final static String[] TRADE_FIELDS = {"d", "t", "p", "q"};
+    private final static String[] CANDLE_FIELDS = {"t", "o", "c", "h", "l", "v"};
+
+    // nesting depth of the parts of {"result": {"data": [{...}]}}
+    private final static int RESULT_DEPTH = 2;
+    private final static int DATA_DEPTH = 3;
+    private final static int RECORD_DEPTH = 4;
+    // bytes of the response kept for error messages
+    private final static int HEAD_BYTES = 1024;
+
+    @FunctionalInterface
+    public interface RecordHandler {
+        // values are in field order, the array is reused for the next record
+        void handle(long[] values);
+    }
+
+    private final String[] fields;
+    private final int[] scales;
+    private final boolean exact;
+    private final RecordHandler handler;
+    private final long[] values;
+    private final CharSlice text = new CharSlice();
+    private final Buffer head = Buffer.buffer();
+    // size of the target buffer and how to truncate it back, null for a plain handler
+    private IntSupplier size;
+    private IntConsumer truncate;
+    private int mark = -1;
+
+    private final JsonParser parser;
+    private final ByteArrayFeeder feeder;
+
+    private String fieldName;
+    private int depth;
+    private boolean inResult;
+    private boolean inData;
+    private int seen;
+    private int records;
+    private long bytes;
+    private long code;
+    private String message;
+    private Throwable failure;
+
+    /**
+     * @param fields record fields to decode
+     * @param scales scale of each field, negative for integer fields
+     * @param exact  fail on decimals with more fraction digits than the scale, otherwise decode them as
+     *               {@link CandleBuffer#NOT_REPRESENTABLE}
+     */
+    public JsonRecordDecoder(String[] fields, int[] scales, boolean exact, RecordHandler handler) {
+        if (fields.length != scales.length || fields.length > Integer.SIZE) {
+            throw new IllegalArgumentException("Invalid fields: " + String.join(", ", fields));
+        }
+        this.fields = fields;
+        this.scales = scales;
+        this.exact = exact;
+        this.handler = handler;
+        this.values = new long[fields.length];
+        try {
+            this.parser = factory.createNonBlockingByteArrayParser();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+    }
+
+    // decoder of get-trades records into the trade buffer
+    public static JsonRecordDecoder forTrades(TradeBuffer trades) {
+        return forTrades(trades.priceScale(), trades.quantityScale(),
+                values -> trades.add(values[0], values[1], values[2], values[3]))
+                .rollback(trades::size, trades::truncate);
+    }
+
+    // decoder of get-trades records as {d, t, p, q}
+    public static JsonRecordDecoder forTrades(int priceScale, int quantityScale, RecordHandler handler) {
+        return new JsonRecordDecoder(TRADE_FIELDS, new int[]{-1, -1, priceScale, quantityScale}, true, handler);
+    }
+
+    // decoder of get-candlestick records into the candle buffer
+    public static JsonRecordDecoder forCandles(CandleBuffer candles) {
+        int price = candles.priceScale();
+        return new JsonRecordDecoder(CANDLE_FIELDS, new int[]{-1, price, price, price, price, candles.quantityScale()}, false,
+                values -> candles.add(values[0], values[1], values[2], values[3], values[4], values[5]))
+                .rollback(candles::size, candles::truncate);
+    }
+
+    private JsonRecordDecoder rollback(IntSupplier size, IntConsumer truncate) {
+        this.size = size;
+        this.truncate = truncate;
+        return this;
+    }
+
+    // decode a complete response body
+    public JsonRecordDecoder decode(Buffer body) {
+        write(body);
+        end();
+        return this;
+    }
+
+    // number of records handed to the handler
+    public int getRecords() {
+        return records;
+    }
+
+    // number of bytes written, the size of the response body once it has ended
+    public long getBytes() {
+        return bytes;
+    }
+
+    // "code" of the response, 0 on success
+    public long getCode() {
+        return code;
+    }
+
+    // "message" of the response, null if there is none
+    public String getMessage() {
+        return message;
+    }
+
+    // first bytes of the response, such as the body of an error response
+    public String getHead() {
+        return head.toString();
+    }
+
+    // decoding error, null if the input decoded so far is valid
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    // decoding errors never fail the stream, see getFailure
+    @Override
+    public JsonRecordDecoder exceptionHandler(Handler<Throwable> handler) {
+        return this;
+    }
+
+    @Override
+    public Future<Void> write(Buffer data) {
+        bytes += data.length();
+        if (head.length() < HEAD_BYTES) head.appendBuffer(data, 0, Math.min(data.length(), HEAD_BYTES - head.length()));
+        if (Objects.isNull(failure)) {
+            try {
+                byte[] bytes = data.getBytes();
+                feeder.feedInput(bytes, 0, bytes.length);
+                parse();
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+        return Future.succeededFuture();
+    }
+
+    @Override
+    public void write(Buffer data, Handler<AsyncResult<Void>> handler) {
+        Future<Void> result = write(data);
+        if (Objects.nonNull(handler)) handler.handle(result);
+    }
+
+    @Override
+    public void end(Handler<AsyncResult<Void>> handler) {
+        if (Objects.isNull(failure)) {
+            try {
+                feeder.endOfInput();
+                parse();
+                if (depth != 0) fail(new IOException("Truncated response after " + records + " records"));
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+        if (Objects.nonNull(handler)) handler.handle(Future.succeededFuture());
+    }
+
+    @Override
+    public JsonRecordDecoder setWriteQueueMaxSize(int maxSize) {
+        return this;
+    }
+
+    // records are decoded synchronously, so the queue is never full
+    @Override
+    public boolean writeQueueFull() {
+        return false;
+    }
+
+    @Override
+    public JsonRecordDecoder drainHandler(Handler<Void> handler) {
+        return this;
+    }
+
+    private void parse() throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            switch (token) {
+                case FIELD_NAME:
+                    fieldName = parser.getCurrentName();
+                    break;
+                case START_OBJECT:
+                    depth++;
+                    if (depth == RESULT_DEPTH && "result".equals(fieldName)) inResult = true;
+                    else if (inData && depth == RECORD_DEPTH) seen = 0;
+                    fieldName = null;
+                    break;
+                case START_ARRAY:
+                    depth++;
+                    if (inResult && depth == DATA_DEPTH && "data".equals(fieldName)) inData = true;
+                    break;
+                case END_OBJECT:
+                    if (inData && depth == RECORD_DEPTH) endRecord();
+                    else if (depth == RESULT_DEPTH) inResult = false;
+                    depth--;
+                    break;
+                case END_ARRAY:
+                    if (depth == DATA_DEPTH) inData = false;
+                    depth--;
+                    break;
+                default:
+                    if (inData && depth == RECORD_DEPTH) {
+                        value(token);
+                    } else if (depth == 1 && "code".equals(fieldName) && token == JsonToken.VALUE_NUMBER_INT) {
+                        code = parser.getLongValue();
+                    } else if (depth == 1 && "message".equals(fieldName)) {
+                        message = parser.getText();
+                    }
+            }
+        }
+    }
+
+    private void value(JsonToken token) throws IOException {
+        if (token != JsonToken.VALUE_NUMBER_INT && token != JsonToken.VALUE_NUMBER_FLOAT && token != JsonToken.VALUE_STRING) return;
+
+        int index = indexOf(fieldName);
+        if (index < 0) return;
+
+        text.wrap(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+        int scale = scales[index];
+        if (scale < 0) {
+            values[index] = parseLong(text);
+        } else if (exact) {
+            values[index] = FixedPoint.parse(text, scale);
+        } else {
+            try {
+                values[index] = FixedPoint.parse(text, scale);
+            } catch (ArithmeticException e) {
+                values[index] = CandleBuffer.NOT_REPRESENTABLE;
+            }
+        }
+        seen |= 1 << index;
+    }
+
+    private void endRecord() {
+        if (seen != (int) ((1L << fields.length) - 1)) {
+            throw new IllegalStateException("Incomplete record " + records + ", expected fields: " + String.join(", ", fields));
+        }
+        if (records == 0 && Objects.nonNull(size)) mark = size.getAsInt();
+        handler.handle(values);
+        records++;
+    }
+
+    private int indexOf(String name) {
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    private void fail(Throwable e) {
+        failure = e;
+        // drop the records of the page already added
+        if (mark >= 0) truncate.accept(mark);
+    }
+
+    private static long parseLong(CharSequence chars) {
+        int length = chars.length();
+        boolean negative = length > 0 && chars.charAt(0) == '-';
+        int i = negative ? 1 : 0;
+        if (i == length) throw new NumberFormatException("Not an integer: " + chars);
+
+        long value = 0;
+        for (; i < length; i++) {
+            char c = chars.charAt(i);
+            if (c < '0' || c > '9') throw new NumberFormatException("Not an integer: " + chars);
+            value = Math.addExact(Math.multiplyExact(value, 10), c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    // reusable view of the parser text buffer
+    private static final class CharSlice implements CharSequence {
+        private char[] chars;
+        private int offset;
+        private int length;
+
+        void wrap(char[] chars, int offset, int length) {
+            this.chars = chars;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return chars[offset + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(chars, offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(chars, offset, length);
+        }
+    }
+}
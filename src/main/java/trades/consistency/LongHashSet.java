@@ -0,0 +1,116 @@
+package trades.consistency;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing set of primitive longs with linear probing, used to deduplicate trade ids without boxing.
+ */
+public final class LongHashSet {
+    private final static long EMPTY = 0L;
+
+    private long[] keys;
+    private int mask;
+    private int size;
+    private boolean hasEmptyKey;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    public LongHashSet(int expectedSize) {
+        // keep the load factor at or below 0.5
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;
+        keys = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    // returns false if the value was already present
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            if (hasEmptyKey) return false;
+            hasEmptyKey = true;
+            size++;
+            return true;
+        }
+
+        int slot = hash(value) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == value) return false;
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = value;
+        if (++size * 2 > keys.length) rehash(keys.length << 1);
+        return true;
+    }
+
+    public boolean contains(long value) {
+        if (value == EMPTY) return hasEmptyKey;
+
+        int slot = hash(value) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == value) return true;
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    // returns false if the value was not present
+    public boolean remove(long value) {
+        if (value == EMPTY) {
+            if (!hasEmptyKey) return false;
+            hasEmptyKey = false;
+            size--;
+            return true;
+        }
+
+        int slot = hash(value) & mask;
+        while (keys[slot] != value) {
+            if (keys[slot] == EMPTY) return false;
+            slot = (slot + 1) & mask;
+        }
+        // shift back the keys probed past the removed one, so that no probe stops early at the hole
+        int hole = slot;
+        for (int next = (hole + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+            int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                hole = next;
+            }
+        }
+        keys[hole] = EMPTY;
+        size--;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        hasEmptyKey = false;
+        size = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] old = keys;
+        keys = new long[capacity];
+        mask = capacity - 1;
+        for (long key : old) {
+            if (key == EMPTY) continue;
+            int slot = hash(key) & mask;
+            while (keys[slot] != EMPTY) slot = (slot + 1) & mask;
+            keys[slot] = key;
+        }
+    }
+
+    // murmur3 finalizer, trade ids are sequential so the low bits need mixing
+    private static int hash(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return (int) value;
+    }
+}
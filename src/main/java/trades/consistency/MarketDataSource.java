@@ -0,0 +1,30 @@
+package trades.consistency;
+
+import io.vertx.core.Future;
+
+/**
+ * Source of the trades, and optionally the candles, of one instrument for {@link StreamingReconciler}.
+ * <p>
+ * Records are delivered on the event loop as fixed-point values with the scale of the instrument:
+ * trades as (id, timestamp, price, quantity), candles as (timestamp, open, close, high, low, volume).
+ * The values array is reused between records. While paused, a source delivers nothing and stops reading
+ * from the exchange, so a slow consumer pushes back on the network instead of buffering without bound.
+ */
+public interface MarketDataSource {
+
+    MarketDataSource tradeHandler(JsonRecordDecoder.RecordHandler handler);
+
+    // candle updates of the timeframe, a candle may be delivered many times while it is open
+    MarketDataSource candleHandler(String timeframe, JsonRecordDecoder.RecordHandler handler);
+
+    // whether candles are delivered to the candle handlers, otherwise they are fetched with get-candlestick
+    boolean pushesCandles();
+
+    Future<Void> start();
+
+    void stop();
+
+    MarketDataSource pause();
+
+    MarketDataSource resume();
+}
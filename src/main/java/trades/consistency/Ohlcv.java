@@ -0,0 +1,77 @@
+package trades.consistency;
+
+/**
+ * Mutable open/close/high/low/volume accumulator of {@link FixedPoint} values, reused across candles.
+ */
+public final class Ohlcv {
+    private long open;
+    private long close;
+    private long high;
+    private long low;
+    private long volume;
+    private long count;
+
+    public Ohlcv() {
+        reset();
+    }
+
+    public Ohlcv reset() {
+        open = 0;
+        close = 0;
+        high = Long.MIN_VALUE;
+        low = Long.MAX_VALUE;
+        volume = 0;
+        count = 0;
+        return this;
+    }
+
+    // add the next trade in time order
+    public void add(long price, long quantity) {
+        if (count == 0) open = price;
+        close = price;
+        high = FixedPoint.max(high, price);
+        low = FixedPoint.min(low, price);
+        volume = FixedPoint.add(volume, quantity);
+        count++;
+    }
+
+    // merge the aggregate of the following period
+    public void merge(long nextOpen, long nextClose, long nextHigh, long nextLow, long nextVolume, long nextCount) {
+        if (nextCount == 0) return;
+        if (count == 0) open = nextOpen;
+        close = nextClose;
+        high = FixedPoint.max(high, nextHigh);
+        low = FixedPoint.min(low, nextLow);
+        volume = FixedPoint.add(volume, nextVolume);
+        count += nextCount;
+    }
+
+    public void merge(Ohlcv next) {
+        merge(next.open, next.close, next.high, next.low, next.volume, next.count);
+    }
+
+    public long getOpen() {
+        return open;
+    }
+
+    public long getClose() {
+        return close;
+    }
+
+    public long getHigh() {
+        return high;
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    public long getVolume() {
+        return volume;
+    }
+
+    // number of trades, 0 if the period has no trade
+    public long getCount() {
+        return count;
+    }
+}
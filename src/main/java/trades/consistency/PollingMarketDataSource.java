@@ -0,0 +1,63 @@
+package trades.consistency;
+
+import io.vertx.core.Future;
+
+/**
+ * Trades of one instrument polled from the get-trades API by an {@link AdaptivePoller}. Candles are not pushed.
+ */
+public class PollingMarketDataSource implements MarketDataSource {
+    private final AdaptivePoller poller;
+
+    public PollingMarketDataSource(AdaptivePoller poller) {
+        this.poller = poller;
+    }
+
+    public AdaptivePoller getPoller() {
+        return poller;
+    }
+
+    @Override
+    public MarketDataSource tradeHandler(JsonRecordDecoder.RecordHandler handler) {
+        poller.handler(handler);
+        return this;
+    }
+
+    @Override
+    public MarketDataSource candleHandler(String timeframe, JsonRecordDecoder.RecordHandler handler) {
+        return this;
+    }
+
+    @Override
+    public boolean pushesCandles() {
+        return false;
+    }
+
+    @Override
+    public Future<Void> start() {
+        poller.start();
+        return Future.succeededFuture();
+    }
+
+    @Override
+    public void stop() {
+        poller.stop();
+    }
+
+    // polls are skipped while paused
+    @Override
+    public MarketDataSource pause() {
+        poller.pause();
+        return this;
+    }
+
+    @Override
+    public MarketDataSource resume() {
+        poller.resume();
+        return this;
+    }
+
+    // fetch one get-trades page, completes with the number of trades in the response
+    public Future<Integer> poll() {
+        return poller.poll();
+    }
+}
@@ -0,0 +1,196 @@
+package trades.consistency;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import trades.archive.TradeArchive;
+import trades.util.PayloadDump;
+import trades.util.ReconciliationMetrics;
+import trades.util.ResponseCache;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Run the reconciliation of many (instrument, timeframe) cases concurrently on one Vertx instance.
+ * <p>
+ * The trades of an instrument are collected once and aggregated into candles of every fixed timeframe by one
+ * {@link CandleAggregator}, which all of its timeframes are checked against. Trade collections and
+ * candle checks are jobs of one queue, of which at most {@code max_concurrency} run at the same time. The
+ * checks themselves run on the worker pool, so the event loop keeps serving responses. The candles and trades of
+ * a failed case are dumped by {@link PayloadDump}.
+ */
+public class ReconciliationScheduler {
+    private final static Logger log = LoggerFactory.getLogger(ReconciliationScheduler.class);
+
+    private final Vertx vertx;
+    private final Map<String, JsonObject> apiInfo;
+    private final JsonObject config;
+    private final int maxConcurrency;
+    private final long pollInterval;
+    private final long pollRounds;
+    // scales the exchange lists for the instruments, config.json "scale" entries of an instrument take precedence
+    private final Map<String, InstrumentScale> scales;
+    // collected trades are appended to the archive when "archive" is enabled
+    private final TradeArchive archive;
+
+    private final Deque<Supplier<Future<?>>> queue = new ArrayDeque<>();
+    private int running;
+
+    public ReconciliationScheduler(Vertx vertx, Map<String, JsonObject> apiInfo, JsonObject config) {
+        this(vertx, apiInfo, config, Collections.emptyMap());
+    }
+
+    public ReconciliationScheduler(Vertx vertx, Map<String, JsonObject> apiInfo, JsonObject config, Map<String, InstrumentScale> scales) {
+        JsonObject options = Objects.isNull(config) ? new JsonObject() : config.getJsonObject("scheduler", new JsonObject());
+        this.vertx = vertx;
+        this.apiInfo = apiInfo;
+        this.config = config;
+        this.maxConcurrency = Math.max(1, options.getInteger("max_concurrency", 8));
+        this.pollInterval = options.getLong("poll_interval", 2000L);
+        this.pollRounds = options.getLong("poll_rounds", 10L);
+        this.scales = scales;
+
+        JsonObject archiveOptions = Objects.isNull(config) ? null : config.getJsonObject("archive");
+        this.archive = Objects.nonNull(archiveOptions) && archiveOptions.getBoolean("enabled", false)
+                ? TradeArchive.fromConfig(archiveOptions) : null;
+    }
+
+    // close the segments of the archive, if any, so the last records and index entries are written
+    public void close() {
+        if (Objects.nonNull(archive)) archive.close();
+    }
+
+    public static String caseName(String instrument, String timeframe) {
+        return instrument + "(" + timeframe + ")";
+    }
+
+    /**
+     * Schedule the timeframes of each instrument.
+     *
+     * @return the report of each case by {@link #caseName(String, String)}, failed if the data could not be fetched
+     */
+    public Map<String, Future<CheckReport>> schedule(Map<String, List<String>> cases) {
+        Map<String, Future<CheckReport>> reports = new LinkedHashMap<>();
+
+        for (Map.Entry<String, List<String>> entry : cases.entrySet()) {
+            String instrument = entry.getKey();
+            List<String> timeframes = entry.getValue();
+            InstrumentScale scale = InstrumentScale.fromConfig(config, instrument, scales.get(instrument));
+
+            // poll as long as the longest timeframe needs, at most pollRounds times
+            long rounds = 1;
+            for (String timeframe : timeframes) {
+                rounds = Math.max(rounds, Math.min(Timeframe.parse(timeframe) / pollInterval, pollRounds));
+            }
+            long instrumentRounds = rounds;
+
+            long[] periods = timeframes.stream().filter(Timeframe::isFixed).mapToLong(Timeframe::parse).toArray();
+            // the trades are only kept after aggregation for the payload dump of failed cases
+            Promise<TradeBuffer> collected = Promise.promise();
+            Future<CandleAggregator> aggregator = submit(() -> collect(instrument, scale, instrumentRounds)
+                    .onSuccess(trades -> collected.complete(PayloadDump.isEnabled() ? trades : null))
+                    .compose(trades -> vertx.executeBlocking(promise -> {
+                        if (Objects.nonNull(archive)) archive.append(instrument, trades);
+                        promise.complete(new CandleAggregator(trades).prepare(periods));
+                    }, false)));
+
+            for (String timeframe : timeframes) {
+                Promise<CheckReport> report = Promise.promise();
+                aggregator.onFailure(report::fail)
+                        .onSuccess(aggregated -> submit(() -> check(instrument, timeframe, scale, aggregated, collected.future().result())).onComplete(report));
+                reports.put(caseName(instrument, timeframe), report.future());
+            }
+        }
+
+        return reports;
+    }
+
+    /**
+     * Check the current candles of the case against the archived trades of their periods instead of polling,
+     * to reconcile past days or rerun a failed case on the trades it failed with.
+     */
+    public Future<CheckReport> replay(String instrument, String timeframe) {
+        if (Objects.isNull(archive)) return Future.failedFuture("Trade archive is not enabled");
+        log.info("Start Replay Consistency Test: {}({})", instrument, timeframe);
+
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("instrument_name", instrument);
+        parameters.put("timeframe", timeframe);
+
+        CandleBuffer candles = new CandleBuffer(InstrumentScale.fromConfig(config, instrument, scales.get(instrument)));
+        return ResponseCache.cache(vertx).getCandleStick(apiInfo, parameters, candles)
+                .compose(count -> vertx.executeBlocking(promise -> {
+                    Timeframe period = Timeframe.of(timeframe);
+                    long from = Long.MAX_VALUE, to = Long.MIN_VALUE;
+                    for (int i = 0; i < candles.size(); i++) {
+                        from = Math.min(from, candles.timestamp(i));
+                        to = Math.max(to, period.end(candles.timestamp(i)));
+                    }
+                    TradeSeries trades = archive.replay(instrument, from, to);
+                    long start = System.nanoTime();
+                    CheckReport report = ConsistencyChecker.check(instrument, timeframe, candles, trades);
+                    ReconciliationMetrics.check(instrument, timeframe, System.nanoTime() - start);
+                    if (!report.isPass()) PayloadDump.failure(report, candles, null);
+                    promise.complete(report);
+                }, false));
+    }
+
+    // adaptive polling ("polling" in config.json) spends the time of the rounds, otherwise poll the rounds every pollInterval
+    private Future<TradeBuffer> collect(String instrument, InstrumentScale scale, long rounds) {
+        JsonObject polling = Objects.isNull(config) ? null : config.getJsonObject("polling");
+        if (Objects.nonNull(polling) && polling.getBoolean("adaptive", false)) {
+            return TradeCollector.collect(vertx, apiInfo, instrument, scale, polling, rounds * pollInterval);
+        }
+        return TradeCollector.collect(vertx, apiInfo, instrument, scale, pollInterval, rounds);
+    }
+
+    private Future<CheckReport> check(String instrument, String timeframe, InstrumentScale scale, CandleAggregator aggregator, TradeBuffer trades) {
+        log.info("Start Consistency Test: {}({})", instrument, timeframe);
+
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("instrument_name", instrument);
+        parameters.put("timeframe", timeframe);
+
+        CandleBuffer candles = new CandleBuffer(scale);
+        return ResponseCache.cache(vertx).getCandleStick(apiInfo, parameters, candles)
+                .compose(count -> vertx.executeBlocking(promise -> {
+                    long start = System.nanoTime();
+                    CheckReport report = ConsistencyChecker.check(instrument, timeframe, candles, aggregator);
+                    ReconciliationMetrics.check(instrument, timeframe, System.nanoTime() - start);
+                    if (!report.isPass()) PayloadDump.failure(report, candles, trades);
+                    promise.complete(report);
+                }, false));
+    }
+
+    // run the job once fewer than maxConcurrency jobs are running
+    private synchronized <T> Future<T> submit(Supplier<Future<T>> job) {
+        Promise<T> promise = Promise.promise();
+        queue.add(() -> {
+            Future<T> future;
+            try {
+                future = job.get();
+            } catch (Exception e) {
+                future = Future.failedFuture(e);
+            }
+            return future.onComplete(promise);
+        });
+        next();
+        return promise.future();
+    }
+
+    private synchronized void next() {
+        while (running < maxConcurrency && !queue.isEmpty()) {
+            running++;
+            queue.poll().get().onComplete(ar -> {
+                synchronized (this) {
+                    running--;
+                }
+                next();
+            });
+        }
+    }
+}
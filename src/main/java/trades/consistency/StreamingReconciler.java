@@ -0,0 +1,380 @@
+package trades.consistency;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import trades.util.ReconciliationMetrics;
+import trades.util.ResponseCache;
+
+import java.util.*;
+import java.util.function.LongSupplier;
+
+/**
+ * Continuous reconciliation of one instrument.
+ * <p>
+ * Trades of a {@link MarketDataSource} (get-trades polling or the market data WebSocket) are deduplicated once by id,
+ * then folded into running OHLCV accumulators of the open candle of every timeframe as they arrive. Once the period of a candle has closed
+ * (plus a grace time for late trades), its accumulator is finalized, compared with the candle of the same start
+ * (pushed by the source, or fetched with get-candlestick through the {@link ResponseCache}) and dropped, so memory holds only the open candles.
+ * Every finalized candle is reported to the handler as a one-candle {@link CheckReport}. Candles follow the UTC
+ * buckets of {@link Timeframe}, months included, as the batch checker does.
+ * <p>
+ * While more than {@code max_pending} candles are open or waiting for their check, the source is paused, so a slow
+ * get-candlestick holds back the exchange instead of growing the open candles without bound. It is resumed once
+ * half of them have been reported.
+ * <p>
+ * Candles that started before the reconciler are skipped, their trades were not all observed. Ids are only kept for
+ * the trades of the last {@code dedup_window} (two windows at most) behind the latest trade, older trades are taken
+ * as already seen, as the overlap of get-trades pages and WebSocket backfills is much shorter.
+ */
+public class StreamingReconciler {
+    private final static Logger log = LoggerFactory.getLogger(StreamingReconciler.class);
+
+    // accumulator of one open candle, trades may arrive in any order but only once
+    private static final class OpenCandle {
+        long openTimestamp = Long.MAX_VALUE, openId;
+        long closeTimestamp = Long.MIN_VALUE, closeId;
+        long open, close;
+        long high = Long.MIN_VALUE, low = Long.MAX_VALUE;
+        long volume, count;
+
+        void add(long id, long timestamp, long price, long quantity) {
+            if (timestamp < openTimestamp || (timestamp == openTimestamp && id < openId)) {
+                openTimestamp = timestamp;
+                openId = id;
+                open = price;
+            }
+            if (timestamp > closeTimestamp || (timestamp == closeTimestamp && id > closeId)) {
+                closeTimestamp = timestamp;
+                closeId = id;
+                close = price;
+            }
+            high = FixedPoint.max(high, price);
+            low = FixedPoint.min(low, price);
+            volume = FixedPoint.add(volume, quantity);
+            count++;
+        }
+
+        Ohlcv toOhlcv(Ohlcv ohlcv) {
+            ohlcv.reset().merge(open, close, high, low, volume, count);
+            return ohlcv;
+        }
+    }
+
+    // ids of the trades of the current and the previous window of trade time
+    private static final class RecentIds {
+        final long window;
+        LongHashSet current = new LongHashSet();
+        LongHashSet previous = new LongHashSet();
+        long generation = Long.MIN_VALUE;
+
+        RecentIds(long window) {
+            this.window = window;
+        }
+
+        // returns false if the trade was already seen, or is older than the previous window
+        boolean add(long id, long timestamp) {
+            long g = Math.floorDiv(timestamp, window);
+            if (g > generation) {
+                if (g == generation + 1) {
+                    // the current window becomes the previous one, the ids of the previous one are dropped
+                    LongHashSet recycled = previous;
+                    previous = current;
+                    current = recycled;
+                } else {
+                    previous.clear();
+                }
+                current.clear();
+                generation = g;
+            }
+            // a trade keeps its timestamp, so its id is only ever in the set of its window
+            if (g == generation) return current.add(id);
+            if (g == generation - 1) return previous.add(id);
+            return false;
+        }
+    }
+
+    // open candles of one timeframe by start time
+    private static final class Series {
+        final String timeframe;
+        final Timeframe period;
+        final TreeMap<Long, OpenCandle> open = new TreeMap<>();
+        // latest (timestamp, open, close, high, low, volume) of each candle pushed by the source
+        final TreeMap<Long, long[]> candles = new TreeMap<>();
+        // first candle observed completely
+        final long firstStart;
+        // candles starting before this time are finalized
+        long finalizedUntil;
+        // bucket of the latest trade, most trades fall into it
+        long bucketStart = Long.MAX_VALUE, bucketEnd = Long.MIN_VALUE;
+
+        Series(String timeframe, Timeframe period, long firstStart) {
+            this.timeframe = timeframe;
+            this.period = period;
+            this.firstStart = firstStart;
+            this.finalizedUntil = firstStart;
+        }
+
+        // start of the candle holding the trade
+        long start(long timestamp) {
+            if (timestamp <= bucketStart || timestamp > bucketEnd) {
+                bucketStart = period.start(timestamp);
+                bucketEnd = period.end(bucketStart);
+            }
+            return bucketStart;
+        }
+    }
+
+    private final Vertx vertx;
+    private final Map<String, JsonObject> apiInfo;
+    private final String instrument;
+    private final InstrumentScale scale;
+    private final long pollInterval;
+    private final long grace;
+    private final int maxPending;
+    private final LongSupplier clock;
+    private final Handler<CheckReport> handler;
+    private final MarketDataSource source;
+    private final ResponseCache cache;
+    private final List<Series> series = new ArrayList<>();
+    private final RecentIds ids;
+
+    private long timerId = -1;
+    private long lateTrades;
+    private boolean finalizing;
+    // candles accumulating trades, and finalized candles whose check is running
+    private int openCandles;
+    private int pendingCandles;
+    private boolean sourcePaused;
+
+    public StreamingReconciler(Vertx vertx, Map<String, JsonObject> apiInfo, JsonObject config, String instrument,
+                               List<String> timeframes, Handler<CheckReport> handler) {
+        this(vertx, apiInfo, config, instrument, timeframes, handler, System::currentTimeMillis);
+    }
+
+    public StreamingReconciler(Vertx vertx, Map<String, JsonObject> apiInfo, JsonObject config, String instrument,
+                               List<String> timeframes, Handler<CheckReport> handler, LongSupplier clock) {
+        this(vertx, apiInfo, config, instrument, InstrumentScale.fromConfig(config, instrument), timeframes, handler, clock);
+    }
+
+    public StreamingReconciler(Vertx vertx, Map<String, JsonObject> apiInfo, JsonObject config, String instrument,
+                               List<String> timeframes, Handler<CheckReport> handler, LongSupplier clock, MarketDataSource source) {
+        this(vertx, apiInfo, config, instrument, InstrumentScale.fromConfig(config, instrument), timeframes, handler, clock, source);
+    }
+
+    // trades and candles are decoded with the scale, such as the one get-instruments lists for the instrument
+    public StreamingReconciler(Vertx vertx, Map<String, JsonObject> apiInfo, JsonObject config, String instrument, InstrumentScale scale,
+                               List<String> timeframes, Handler<CheckReport> handler, LongSupplier clock) {
+        this(vertx, apiInfo, config, instrument, scale, timeframes, handler, clock, source(vertx, apiInfo, config, instrument, scale));
+    }
+
+    public StreamingReconciler(Vertx vertx, Map<String, JsonObject> apiInfo, JsonObject config, String instrument, InstrumentScale scale,
+                               List<String> timeframes, Handler<CheckReport> handler, LongSupplier clock, MarketDataSource source) {
+        JsonObject options = options(config);
+        this.vertx = vertx;
+        this.apiInfo = apiInfo;
+        this.instrument = instrument;
+        this.scale = scale;
+        this.pollInterval = options.getLong("poll_interval", 2000L);
+        this.grace = options.getLong("grace", 5000L);
+        this.maxPending = options.getInteger("max_pending", 10_000);
+        this.ids = new RecentIds(Math.max(1, options.getLong("dedup_window", 600_000L)));
+        this.clock = clock;
+        this.handler = handler;
+        this.source = source;
+        this.cache = ResponseCache.cache(vertx, clock);
+
+        long now = clock.getAsLong();
+        for (String timeframe : timeframes) {
+            Timeframe period = Timeframe.of(timeframe);
+            // the first complete candle is the one after the candle holding the current time
+            Series s = new Series(timeframe, period, period.end(period.start(now)));
+            series.add(s);
+            source.candleHandler(timeframe, candle -> {
+                if (candle[0] >= s.finalizedUntil) s.candles.put(candle[0], candle.clone());
+            });
+        }
+        source.tradeHandler(this::add);
+    }
+
+    private static JsonObject options(JsonObject config) {
+        return Objects.isNull(config) ? new JsonObject() : config.getJsonObject("streaming", new JsonObject());
+    }
+
+    // the "source" of the streaming config: "websocket" subscribes to the market data channels, "rest" polls get-trades
+    private static MarketDataSource source(Vertx vertx, Map<String, JsonObject> apiInfo, JsonObject config, String instrument,
+                                           InstrumentScale scale) {
+        JsonObject options = options(config);
+        if ("websocket".equals(options.getString("source", "rest"))) {
+            return new WebSocketMarketDataSource(vertx, apiInfo, config, instrument, scale);
+        }
+        JsonObject polling = Objects.isNull(config) ? null : config.getJsonObject("polling");
+        if (Objects.nonNull(polling) && polling.getBoolean("adaptive", false)) {
+            return new PollingMarketDataSource(new AdaptivePoller(vertx, apiInfo, instrument, scale, polling));
+        }
+        return new PollingMarketDataSource(AdaptivePoller.fixed(vertx, apiInfo, instrument, scale, options.getLong("poll_interval", 2000L)));
+    }
+
+    public StreamingReconciler start() {
+        if (timerId < 0) {
+            source.start().onFailure(e -> log.error("Market data source error: {}", instrument, e));
+            timerId = vertx.setPeriodic(pollInterval, id -> finalizeClosed());
+        }
+        return this;
+    }
+
+    public void stop() {
+        if (timerId >= 0) {
+            vertx.cancelTimer(timerId);
+            source.stop();
+        }
+        timerId = -1;
+    }
+
+    // add one trade to the open candle of every timeframe
+    public void add(long[] trade) {
+        add(trade[0], trade[1], trade[2], trade[3]);
+    }
+
+    public void add(long id, long timestamp, long price, long quantity) {
+        if (!ids.add(id, timestamp)) return;
+        for (Series s : series) {
+            long start = s.start(timestamp);
+            if (start < s.finalizedUntil) {
+                // arrived after its candle was finalized, or started before the reconciler
+                if (start >= s.firstStart) lateTrades++;
+                continue;
+            }
+            OpenCandle candle = s.open.get(start);
+            if (Objects.isNull(candle)) {
+                candle = new OpenCandle();
+                s.open.put(start, candle);
+                openCandles++;
+                backpressure();
+            }
+            candle.add(id, timestamp, price, quantity);
+        }
+    }
+
+    /**
+     * Finalize the candles whose period has closed, compare them with the get-candlestick candles and drop them.
+     *
+     * @return completes once every finalized candle has been reported
+     */
+    public Future<Void> finalizeClosed() {
+        if (finalizing) return Future.succeededFuture();
+        finalizing = true;
+
+        long now = clock.getAsLong();
+        List<Future<Void>> checks = new ArrayList<>();
+        for (Series s : series) {
+            // candles ending at or before now - grace are closed
+            long closedUntil = s.period.start(now - grace + 1);
+            if (closedUntil <= s.finalizedUntil) continue;
+
+            long from = s.finalizedUntil;
+            SortedMap<Long, OpenCandle> closed = new TreeMap<>(s.open.headMap(closedUntil));
+            s.open.headMap(closedUntil).clear();
+            s.finalizedUntil = closedUntil;
+            int pending = closed.size();
+            openCandles -= pending;
+            pendingCandles += pending;
+            checks.add(check(s, from, closedUntil, closed).onComplete(ar -> {
+                pendingCandles -= pending;
+                backpressure();
+            }));
+        }
+
+        return CompositeFuture.join(new ArrayList<>(checks))
+                .<Void>mapEmpty()
+                .onComplete(ar -> finalizing = false);
+    }
+
+    // number of candles still accumulating trades
+    public int getOpenCandles() {
+        return openCandles;
+    }
+
+    // whether the source is paused because too many candles are pending
+    public boolean isBackpressured() {
+        return sourcePaused;
+    }
+
+    // trades whose candle was already finalized when they arrived
+    public long getLateTrades() {
+        return lateTrades;
+    }
+
+    private void backpressure() {
+        int backlog = openCandles + pendingCandles;
+        if (!sourcePaused && backlog > maxPending) {
+            sourcePaused = true;
+            log.warn("Pause market data of {}: {} candles pending", instrument, backlog);
+            source.pause();
+        } else if (sourcePaused && backlog <= maxPending / 2) {
+            sourcePaused = false;
+            log.info("Resume market data of {}: {} candles pending", instrument, backlog);
+            source.resume();
+        }
+    }
+
+    private Future<Void> check(Series s, long from, long until, SortedMap<Long, OpenCandle> closed) {
+        return candles(s, until)
+                .onFailure(e -> {
+                    // the candles can't be compared, report them as failed rather than never
+                    log.error("Get candlestick api error: {}({})", instrument, s.timeframe, e);
+                    for (Long begin : closed.keySet()) report(s, begin, "get-candlestick error: " + e.getMessage());
+                })
+                .onSuccess(candles -> {
+                    Ohlcv ohlcv = new Ohlcv();
+                    for (int i = 0; i < candles.size(); i++) {
+                        long begin = candles.timestamp(i);
+                        if (begin < from || begin >= until) continue;
+
+                        OpenCandle candle = closed.remove(begin);
+                        String result = ConsistencyChecker.compare(candles, i,
+                                Objects.isNull(candle) ? ohlcv.reset() : candle.toOhlcv(ohlcv));
+                        report(s, begin, result);
+                    }
+
+                    // trades without a candle
+                    for (Long begin : closed.keySet()) report(s, begin, "candle is missing");
+                })
+                .mapEmpty();
+    }
+
+    // candles before the time, pushed by the source or fetched with get-candlestick
+    private Future<CandleBuffer> candles(Series s, long until) {
+        CandleBuffer candles = new CandleBuffer(scale);
+        if (source.pushesCandles()) {
+            SortedMap<Long, long[]> closed = s.candles.headMap(until);
+            for (long[] c : closed.values()) candles.add(c[0], c[1], c[2], c[3], c[4], c[5]);
+            closed.clear();
+            return Future.succeededFuture(candles);
+        }
+
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("instrument_name", instrument);
+        parameters.put("timeframe", s.timeframe);
+        return cache.getCandleStick(apiInfo, parameters, candles).map(candles);
+    }
+
+    private void report(Series s, long begin, String result) {
+        CheckReport report = new CheckReport(instrument, s.timeframe);
+        report.addCandle();
+        ReconciliationMetrics.candles(instrument, 1);
+        if (Objects.isNull(result)) {
+            log.debug("{}({}) Case ({}-{}): PASS", instrument, s.timeframe, begin, s.period.end(begin));
+        } else {
+            String caseName = "Case (" + begin + "-" + s.period.end(begin) + ")";
+            log.error("{}({}) {}: {}", instrument, s.timeframe, caseName, result);
+            report.addMismatch(caseName + ": " + result);
+            ReconciliationMetrics.mismatch(instrument, result);
+        }
+        handler.handle(report);
+    }
+}
@@ -0,0 +1,151 @@
+package trades.consistency;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.Period;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Candle period of a timeframe ("1m", "4h", "1D", "7D", "1M", ...) in UTC.
+ * <p>
+ * Minutes, hours and days have a fixed length, their buckets are aligned to the epoch and found with O(1)
+ * arithmetic. Months and years vary in length, their buckets are aligned to UTC calendar months; the boundaries of
+ * a time range are computed once with {@link #boundaries(long, long)} and searched with a binary search. A bucket
+ * starting at {@code s} covers the trades in {@code (s, end(s)]}. Timeframes are parsed once and shared.
+ */
+public final class Timeframe {
+    private final static Map<String, Timeframe> timeframes = new ConcurrentHashMap<>();
+    private final static long DAY = 86_400_000L;
+
+    private final String name;
+    // length of a fixed timeframe, 0 for calendar timeframes
+    private final long millis;
+    // months of a calendar timeframe, 0 for fixed timeframes
+    private final int months;
+
+    private Timeframe(String name, long millis, int months) {
+        this.name = name;
+        this.millis = millis;
+        this.months = months;
+    }
+
+    public static Timeframe of(String timeframe) {
+        return timeframes.computeIfAbsent(timeframe, Timeframe::create);
+    }
+
+    private static Timeframe create(String timeframe) {
+        if (!Character.isUpperCase(timeframe.charAt(timeframe.length() - 1))) {
+            return new Timeframe(timeframe, Duration.parse("PT" + timeframe).toMillis(), 0);
+        }
+        Period period = Period.parse("P" + timeframe);
+        int months = (int) period.toTotalMonths();
+        if (months == 0) return new Timeframe(timeframe, period.getDays() * DAY, 0);
+        if (period.getDays() != 0) throw new IllegalArgumentException("Timeframe mixes months and days: " + timeframe);
+        return new Timeframe(timeframe, 0, months);
+    }
+
+    // months vary in length, every other timeframe is a fixed number of milliseconds in UTC
+    public static boolean isFixed(String timeframe) {
+        return of(timeframe).isFixed();
+    }
+
+    // translate timeframe into milliseconds, the nominal length (30 days a month) for calendar timeframes
+    public static long parse(String timeframe) {
+        return of(timeframe).getMillis();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isFixed() {
+        return months == 0;
+    }
+
+    public long getMillis() {
+        return isFixed() ? millis : months * 30 * DAY;
+    }
+
+    // start of the bucket holding the timestamp
+    public long start(long timestamp) {
+        if (isFixed()) return Math.floorDiv(timestamp - 1, millis) * millis;
+        LocalDate date = Instant.ofEpochMilli(timestamp - 1).atZone(ZoneOffset.UTC).toLocalDate();
+        long month = Math.floorDiv(date.getYear() * 12L + date.getMonthValue() - 1, months) * months;
+        return LocalDate.of((int) Math.floorDiv(month, 12), Math.floorMod(month, 12) + 1, 1)
+                .atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+    }
+
+    // end of the bucket starting at the time, the start of the next one
+    public long end(long start) {
+        if (isFixed()) return start + millis;
+        return Instant.ofEpochMilli(start).atZone(ZoneOffset.UTC).plusMonths(months).toInstant().toEpochMilli();
+    }
+
+    // boundaries of the buckets starting from the time from to the time to, such as the candles of a response
+    public Boundaries boundaries(long from, long to) {
+        long first = start(from + 1);
+        long last = end(start(Math.max(from, to) + 1));
+        if (isFixed()) return new Boundaries(this, first, last, null);
+
+        long[] edges = new long[16];
+        int size = 0;
+        for (long edge = first; ; edge = end(edge)) {
+            if (size == edges.length) edges = Arrays.copyOf(edges, size * 2);
+            edges[size++] = edge;
+            if (edge >= last) break;
+        }
+        return new Boundaries(this, first, last, Arrays.copyOf(edges, size));
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * Bucket boundaries of one time range. Buckets of fixed timeframes are computed, those of calendar timeframes
+     * are found in the precomputed boundaries; times outside of the range fall back to {@link Timeframe}.
+     */
+    public static final class Boundaries {
+        private final Timeframe timeframe;
+        private final long first;
+        private final long last;
+        // ascending boundaries of a calendar timeframe, null for fixed timeframes
+        private final long[] edges;
+
+        private Boundaries(Timeframe timeframe, long first, long last, long[] edges) {
+            this.timeframe = timeframe;
+            this.first = first;
+            this.last = last;
+            this.edges = edges;
+        }
+
+        // start of the bucket holding the timestamp
+        public long start(long timestamp) {
+            if (edges == null || timestamp <= first || timestamp > last) return timeframe.start(timestamp);
+            // the last boundary before the timestamp
+            return edges[search(timestamp) - 1];
+        }
+
+        // end of the bucket starting at the time, the first boundary after it
+        public long end(long start) {
+            if (edges == null || start < first || start >= last) return timeframe.end(start);
+            return edges[search(start + 1)];
+        }
+
+        // index of the first boundary at or after the time
+        private int search(long time) {
+            int lo = 0, hi = edges.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (edges[mid] < time) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+    }
+}
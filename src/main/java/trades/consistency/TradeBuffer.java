@@ -0,0 +1,275 @@
+package trades.consistency;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Columnar store of deduplicated trades.
+ * <p>
+ * Trade id, timestamp, price and quantity are kept in parallel primitive arrays, price and quantity as
+ * {@link FixedPoint} longs with the scale of the instrument. Duplicate trade ids are dropped on insert, and
+ * {@link #sort()} orders the columns in place by timestamp, then trade id.
+ */
+public final class TradeBuffer implements TradeSeries {
+    public final static int DEFAULT_SCALE = 8;
+
+    private final int priceScale;
+    private final int quantityScale;
+    private final LongHashSet ids;
+
+    private long[] id;
+    private long[] timestamp;
+    private long[] price;
+    private long[] quantity;
+    private int size;
+    private boolean sorted = true;
+
+    public TradeBuffer() {
+        this(1024, DEFAULT_SCALE, DEFAULT_SCALE);
+    }
+
+    public TradeBuffer(InstrumentScale scale) {
+        this(1024, scale.getPriceScale(), scale.getQuantityScale());
+    }
+
+    public TradeBuffer(int capacity, int priceScale, int quantityScale) {
+        this.priceScale = priceScale;
+        this.quantityScale = quantityScale;
+        this.ids = new LongHashSet(capacity);
+        this.id = new long[capacity];
+        this.timestamp = new long[capacity];
+        this.price = new long[capacity];
+        this.quantity = new long[capacity];
+    }
+
+    // add a trade of the get-trades response, returns false if the trade id is already stored
+    public boolean add(JsonObject trade) {
+        return add(trade.getLong("d"), trade.getLong("t"),
+                toScaled(trade.getValue("p"), priceScale), toScaled(trade.getValue("q"), quantityScale));
+    }
+
+    // add a trade with scaled price and quantity, returns false if the trade id is already stored
+    public boolean add(long tradeId, long tradeTimestamp, long scaledPrice, long scaledQuantity) {
+        if (!ids.add(tradeId)) return false;
+
+        if (size == id.length) grow();
+        if (size > 0 && compare(tradeTimestamp, tradeId, timestamp[size - 1], id[size - 1]) < 0) sorted = false;
+        id[size] = tradeId;
+        timestamp[size] = tradeTimestamp;
+        price[size] = scaledPrice;
+        quantity[size] = scaledQuantity;
+        size++;
+        return true;
+    }
+
+    public boolean contains(long tradeId) {
+        return ids.contains(tradeId);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int priceScale() {
+        return priceScale;
+    }
+
+    @Override
+    public int quantityScale() {
+        return quantityScale;
+    }
+
+    @Override
+    public long id(int index) {
+        return id[index];
+    }
+
+    @Override
+    public long timestamp(int index) {
+        return timestamp[index];
+    }
+
+    @Override
+    public long price(int index) {
+        return price[index];
+    }
+
+    @Override
+    public long quantity(int index) {
+        return quantity[index];
+    }
+
+    public void clear() {
+        ids.clear();
+        size = 0;
+        sorted = true;
+    }
+
+    // drop the trades added after the first ones, such as those of a page that failed to decode
+    public void truncate(int size) {
+        if (size < 0 || size >= this.size) return;
+        for (int i = size; i < this.size; i++) ids.remove(id[i]);
+        this.size = size;
+        if (!sorted) sorted = isSorted();
+    }
+
+    // sort all columns in place by timestamp, then trade id
+    public void sort() {
+        if (sorted) return;
+
+        // get-trades pages are newest first, so a reversed run is the common case
+        if (isReversed()) {
+            for (int i = 0, j = size - 1; i < j; i++, j--) swap(i, j);
+        } else {
+            quickSort(0, size - 1, 2 * (32 - Integer.numberOfLeadingZeros(size)));
+        }
+        sorted = true;
+    }
+
+    // index of the first trade with timestamp after the given time, the buffer must be sorted
+    @Override
+    public int firstAfter(long time) {
+        return firstAfter(time, 0, size);
+    }
+
+    // index of the first trade in [from, to) with timestamp after the given time, the buffer must be sorted
+    public int firstAfter(long time, int from, int to) {
+        int low = from, high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamp[mid] <= time) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    // copy the trades into get-trades format, for diagnostics only
+    public JsonArray toJson() {
+        JsonArray trades = new JsonArray();
+        for (int i = 0; i < size; i++) {
+            trades.add(new JsonObject()
+                    .put("d", id[i])
+                    .put("t", timestamp[i])
+                    .put("p", FixedPoint.toBigDecimal(price[i], priceScale).stripTrailingZeros())
+                    .put("q", FixedPoint.toBigDecimal(quantity[i], quantityScale).stripTrailingZeros()));
+        }
+        return trades;
+    }
+
+    // convert a JSON number or numeric string to fixed-point, fails if it has more fraction digits than the scale
+    public static long toScaled(Object value, int scale) {
+        if (value instanceof CharSequence) return FixedPoint.parse((CharSequence) value, scale);
+        if (value instanceof BigDecimal) return FixedPoint.parse(((BigDecimal) value).toPlainString(), scale);
+        if (value instanceof Number) return FixedPoint.valueOf(((Number) value).doubleValue(), scale);
+        throw new NumberFormatException("Not a decimal: " + value);
+    }
+
+    private void grow() {
+        int capacity = Math.max(16, id.length << 1);
+        id = Arrays.copyOf(id, capacity);
+        timestamp = Arrays.copyOf(timestamp, capacity);
+        price = Arrays.copyOf(price, capacity);
+        quantity = Arrays.copyOf(quantity, capacity);
+    }
+
+    private boolean isSorted() {
+        for (int i = 1; i < size; i++) {
+            if (compare(i - 1, i) > 0) return false;
+        }
+        return true;
+    }
+
+    private boolean isReversed() {
+        for (int i = 1; i < size; i++) {
+            if (compare(i - 1, i) < 0) return false;
+        }
+        return true;
+    }
+
+    private static int compare(long timestampA, long idA, long timestampB, long idB) {
+        return timestampA != timestampB ? Long.compare(timestampA, timestampB) : Long.compare(idA, idB);
+    }
+
+    private int compare(int a, int b) {
+        return compare(timestamp[a], id[a], timestamp[b], id[b]);
+    }
+
+    // introsort: quicksort with median-of-three pivot, heapsort once the depth limit is hit
+    private void quickSort(int low, int high, int depth) {
+        while (high - low > 16) {
+            if (depth-- == 0) {
+                heapSort(low, high);
+                return;
+            }
+
+            int mid = (low + high) >>> 1;
+            if (compare(mid, low) < 0) swap(mid, low);
+            if (compare(high, low) < 0) swap(high, low);
+            if (compare(high, mid) < 0) swap(high, mid);
+            long pivotTimestamp = timestamp[mid], pivotId = id[mid];
+
+            int i = low, j = high;
+            while (i <= j) {
+                while (compare(timestamp[i], id[i], pivotTimestamp, pivotId) < 0) i++;
+                while (compare(timestamp[j], id[j], pivotTimestamp, pivotId) > 0) j--;
+                if (i <= j) swap(i++, j--);
+            }
+
+            // recurse into the smaller half to bound the stack
+            if (j - low < high - i) {
+                quickSort(low, j, depth);
+                low = i;
+            } else {
+                quickSort(i, high, depth);
+                high = j;
+            }
+        }
+        insertionSort(low, high);
+    }
+
+    private void insertionSort(int low, int high) {
+        for (int i = low + 1; i <= high; i++) {
+            for (int j = i; j > low && compare(j, j - 1) < 0; j--) swap(j, j - 1);
+        }
+    }
+
+    private void heapSort(int low, int high) {
+        int n = high - low + 1;
+        for (int i = n / 2 - 1; i >= 0; i--) siftDown(low, i, n);
+        for (int end = n - 1; end > 0; end--) {
+            swap(low, low + end);
+            siftDown(low, 0, end);
+        }
+    }
+
+    private void siftDown(int offset, int root, int n) {
+        while (true) {
+            int child = 2 * root + 1;
+            if (child >= n) return;
+            if (child + 1 < n && compare(offset + child, offset + child + 1) < 0) child++;
+            if (compare(offset + root, offset + child) >= 0) return;
+            swap(offset + root, offset + child);
+            root = child;
+        }
+    }
+
+    private void swap(int a, int b) {
+        long tmp = id[a];
+        id[a] = id[b];
+        id[b] = tmp;
+        tmp = timestamp[a];
+        timestamp[a] = timestamp[b];
+        timestamp[b] = tmp;
+        tmp = price[a];
+        price[a] = price[b];
+        price[b] = tmp;
+        tmp = quantity[a];
+        quantity[a] = quantity[b];
+        quantity[b] = tmp;
+    }
+}
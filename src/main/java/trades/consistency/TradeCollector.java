@@ -0,0 +1,84 @@
+package trades.consistency;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import trades.util.ReconciliationMetrics;
+import trades.util.ResponseCache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collect the trades of one instrument by polling the get-trades API, since a single response only holds the latest trades.
+ */
+public final class TradeCollector {
+    private final static Logger log = LoggerFactory.getLogger(TradeCollector.class);
+
+    private TradeCollector() {
+    }
+
+    // poll get-trades every interval for the given rounds, completes with the sorted, deduplicated trades
+    public static Future<TradeBuffer> collect(Vertx vertx, Map<String, JsonObject> apiInfo, String instrument,
+                                              InstrumentScale scale, long interval, long rounds) {
+        Promise<TradeBuffer> promise = Promise.promise();
+
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("instrument_name", instrument);
+
+        TradeBuffer trades = new TradeBuffer(scale); //store trade data in columns, duplicated trade ids are dropped
+        AtomicInteger requests = new AtomicInteger(0);
+        AtomicInteger counter = new AtomicInteger(0);
+        AtomicLong received = new AtomicLong(0);
+
+        vertx.setPeriodic(interval, timeID -> {
+            // stop the timer once every round is sent, responses may still be in flight
+            if (requests.incrementAndGet() >= rounds) vertx.cancelTimer(timeID);
+            ResponseCache.cache(vertx).getTrades(apiInfo, parameters, trades)
+                    .onFailure(e -> {
+                        log.error("Get trade api error({}/{})", counter, rounds, e);
+                        vertx.cancelTimer(timeID);
+                        promise.tryFail(e);
+                    })
+                    .onSuccess(records -> {
+                        received.addAndGet(records);
+                        if (counter.addAndGet(1) == rounds) {
+                            // sort once here, checks of every timeframe then only read the columns
+                            trades.sort();
+                            log.info("Collected {} trades of {} in {} rounds", trades.size(), instrument, rounds);
+                            ReconciliationMetrics.trades(instrument, received.get(), received.get() - trades.size());
+                            promise.tryComplete(trades);
+                        }
+                    });
+        });
+
+        return promise.future();
+    }
+
+    // poll get-trades with an adaptive interval until the duration has passed, completes with the sorted, deduplicated trades
+    public static Future<TradeBuffer> collect(Vertx vertx, Map<String, JsonObject> apiInfo, String instrument,
+                                              InstrumentScale scale, JsonObject polling, long duration) {
+        TradeBuffer trades = new TradeBuffer(scale);
+        long[] received = new long[1];
+        AdaptivePoller poller = new AdaptivePoller(vertx, apiInfo, instrument, scale, polling)
+                .handler(trade -> {
+                    received[0]++;
+                    trades.add(trade[0], trade[1], trade[2], trade[3]);
+                });
+
+        return poller.run(duration).map(v -> {
+            trades.sort();
+            if (log.isInfoEnabled()) {
+                log.info("Collected {} trades of {} in {} requests ({} requests/s, {} gaps)", trades.size(), instrument,
+                        poller.getRequests(), String.format("%.2f", poller.getRequestRate()), poller.getGapCount());
+            }
+            ReconciliationMetrics.trades(instrument, received[0], received[0] - trades.size());
+            return trades;
+        });
+    }
+}
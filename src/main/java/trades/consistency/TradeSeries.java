@@ -0,0 +1,25 @@
+package trades.consistency;
+
+/**
+ * Read access to trades sorted by timestamp, then trade id, with fixed-point prices and quantities.
+ * Implemented by the in-memory {@link TradeBuffer} and by memory-mapped archive segments.
+ */
+public interface TradeSeries {
+
+    int size();
+
+    int priceScale();
+
+    int quantityScale();
+
+    long id(int index);
+
+    long timestamp(int index);
+
+    long price(int index);
+
+    long quantity(int index);
+
+    // index of the first trade with timestamp after the given time
+    int firstAfter(long time);
+}
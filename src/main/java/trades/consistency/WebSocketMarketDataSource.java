@@ -0,0 +1,281 @@
+package trades.consistency;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.WebSocket;
+import io.vertx.core.http.WebSocketConnectOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import trades.util.ReconciliationMetrics;
+
+import java.util.*;
+
+/**
+ * Trades and candles of one instrument pushed by the exchange market data WebSocket.
+ * <p>
+ * Subscribes to the {@code trade.{instrument}} channel and the {@code candlestick.{timeframe}.{instrument}}
+ * channel of every timeframe with a candle handler, answers the heartbeats of the exchange and reconnects when
+ * the connection is lost. Pausing stops reading the socket, so the exchange is held back by TCP flow control.
+ * <p>
+ * Trades pushed while the connection was down are lost: every reconnect is counted as a gap and, with the api info
+ * of get-trades, backfilled with the trades of its latest page after the last trade pushed before the reconnect.
+ * <p>
+ * Connection options are the {@code websocket} section of config.json.
+ */
+public class WebSocketMarketDataSource implements MarketDataSource {
+    private final static Logger log = LoggerFactory.getLogger(WebSocketMarketDataSource.class);
+
+    private final Vertx vertx;
+    private final Map<String, JsonObject> apiInfo;
+    private final String instrument;
+    private final InstrumentScale scale;
+    private final HttpClientOptions clientOptions;
+    private final WebSocketConnectOptions connectOptions;
+    private final long subscribeDelay;
+    private final long reconnectInterval;
+
+    private final long[] values = new long[6];
+    private final Map<String, JsonRecordDecoder.RecordHandler> candleHandlers = new LinkedHashMap<>();
+    private JsonRecordDecoder.RecordHandler tradeHandler = record -> { };
+
+    // created by start() and closed by stop(), so the source can be started again
+    private HttpClient client;
+    private WebSocket webSocket;
+    private long requestId;
+    private boolean paused;
+    private boolean stopped = true;
+    private boolean connected;
+    private long gaps;
+    // latest trade pushed, by timestamp then id
+    private long lastTimestamp = Long.MIN_VALUE;
+    private long lastId = Long.MIN_VALUE;
+
+    // the api info (of get-trades) is used to backfill reconnects, null for none
+    public WebSocketMarketDataSource(Vertx vertx, Map<String, JsonObject> apiInfo, JsonObject config, String instrument, InstrumentScale scale) {
+        JsonObject options = Objects.isNull(config) ? new JsonObject() : config.getJsonObject("websocket", new JsonObject());
+        this.vertx = vertx;
+        this.apiInfo = apiInfo;
+        this.instrument = instrument;
+        this.scale = scale;
+        this.subscribeDelay = options.getLong("subscribe_delay", 1000L);
+        this.reconnectInterval = options.getLong("reconnect_interval", 5000L);
+
+        boolean ssl = options.getBoolean("ssl", true);
+        this.clientOptions = new HttpClientOptions()
+                .setSsl(ssl)
+                .setConnectTimeout(options.getInteger("connect_timeout", 5000));
+        this.connectOptions = new WebSocketConnectOptions()
+                .setHost(options.getString("domain", "uat-stream.3ona.co"))
+                .setPort(options.getInteger("port", ssl ? 443 : 80))
+                .setURI(options.getString("path", "/v2/market"));
+    }
+
+    @Override
+    public MarketDataSource tradeHandler(JsonRecordDecoder.RecordHandler handler) {
+        this.tradeHandler = Objects.requireNonNull(handler);
+        return this;
+    }
+
+    @Override
+    public MarketDataSource candleHandler(String timeframe, JsonRecordDecoder.RecordHandler handler) {
+        candleHandlers.put("candlestick." + timeframe + "." + instrument, Objects.requireNonNull(handler));
+        return this;
+    }
+
+    @Override
+    public boolean pushesCandles() {
+        return true;
+    }
+
+    // completes once the channels are subscribed
+    @Override
+    public Future<Void> start() {
+        if (!stopped) return Future.failedFuture("Market data source already started: " + instrument);
+        stopped = false;
+        connected = false;
+        client = vertx.createHttpClient(clientOptions);
+        return connect();
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        if (Objects.nonNull(webSocket)) webSocket.close();
+        webSocket = null;
+        if (Objects.nonNull(client)) client.close();
+        client = null;
+    }
+
+    // reconnects, each of them may have lost trades
+    public long getGapCount() {
+        return gaps;
+    }
+
+    @Override
+    public synchronized MarketDataSource pause() {
+        paused = true;
+        if (Objects.nonNull(webSocket)) webSocket.pause();
+        return this;
+    }
+
+    @Override
+    public synchronized MarketDataSource resume() {
+        paused = false;
+        if (Objects.nonNull(webSocket)) webSocket.resume();
+        return this;
+    }
+
+    private Future<Void> connect() {
+        Promise<Void> subscribed = Promise.promise();
+        subscribed.future().onSuccess(v -> {
+            if (connected) backfill();
+            connected = true;
+        });
+        client.webSocket(connectOptions)
+                .onFailure(e -> {
+                    log.error("Market data WebSocket connect error: {}", instrument, e);
+                    subscribed.fail(e);
+                    reconnect();
+                })
+                .onSuccess(ws -> {
+                    synchronized (this) {
+                        webSocket = ws;
+                        if (paused) ws.pause();
+                    }
+                    ws.textMessageHandler(this::handle);
+                    ws.exceptionHandler(e -> log.error("Market data WebSocket error: {}", instrument, e));
+                    ws.closeHandler(v -> {
+                        log.warn("Market data WebSocket closed: {}", instrument);
+                        webSocket = null;
+                        reconnect();
+                    });
+
+                    // the exchange limits requests sent right after the connection is opened
+                    if (subscribeDelay > 0) {
+                        vertx.setTimer(subscribeDelay, id -> subscribe(ws).onComplete(subscribed));
+                    } else {
+                        subscribe(ws).onComplete(subscribed);
+                    }
+                });
+        return subscribed.future();
+    }
+
+    private void reconnect() {
+        if (stopped) return;
+        vertx.setTimer(reconnectInterval, id -> {
+            if (!stopped) connect();
+        });
+    }
+
+    // fetch the latest get-trades page after a reconnect, the trades pushed while disconnected are lost otherwise
+    private void backfill() {
+        gaps++;
+        ReconciliationMetrics.gap(instrument, "websocket");
+        if (Objects.isNull(apiInfo)) {
+            log.warn("Trade gap of {} after reconnect, no backfill", instrument);
+            return;
+        }
+
+        // the trades up to the last one pushed were seen, they would only count as late in finalized candles
+        long seenTimestamp = lastTimestamp, seenId = lastId;
+        long[] backfilled = new long[1];
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("instrument_name", instrument);
+        JsonRecordDecoder decoder = JsonRecordDecoder.forTrades(scale.getPriceScale(), scale.getQuantityScale(), trade -> {
+            if (trade[1] < seenTimestamp || (trade[1] == seenTimestamp && trade[0] <= seenId)) return;
+            backfilled[0]++;
+            tradeHandler.handle(trade);
+        });
+        trades.util.HttpClient.getTrades(vertx, apiInfo, parameters, decoder)
+                .onSuccess(n -> log.info("Trade gap of {} after reconnect, backfilled {} of {} trades", instrument, backfilled[0], n))
+                .onFailure(e -> log.error("Trade backfill error: {}", instrument, e));
+    }
+
+    private Future<Void> subscribe(WebSocket ws) {
+        JsonArray channels = new JsonArray().add("trade." + instrument);
+        for (String channel : candleHandlers.keySet()) channels.add(channel);
+
+        JsonObject request = new JsonObject()
+                .put("id", ++requestId)
+                .put("method", "subscribe")
+                .put("params", new JsonObject().put("channels", channels))
+                .put("nonce", System.currentTimeMillis());
+        log.info("Subscribe market data channels: {}", channels);
+        return ws.writeTextMessage(request.encode());
+    }
+
+    private void handle(String message) {
+        JsonObject json;
+        try {
+            json = new JsonObject(message);
+        } catch (Exception e) {
+            log.error("Invalid market data message: {}", message, e);
+            return;
+        }
+
+        String method = json.getString("method", "");
+        if ("public/heartbeat".equals(method)) {
+            WebSocket ws = webSocket;
+            if (Objects.nonNull(ws)) {
+                ws.writeTextMessage(new JsonObject().put("id", json.getValue("id")).put("method", "public/respond-heartbeat").encode());
+            }
+            return;
+        }
+        if (json.getInteger("code", 0) != 0) {
+            log.error("Market data error: {}, errorMsg: {}", json.getInteger("code"), json.getString("message"));
+            return;
+        }
+
+        JsonObject result = json.getJsonObject("result");
+        if (!"subscribe".equals(method) || Objects.isNull(result) || Objects.isNull(result.getJsonArray("data"))) return;
+
+        try {
+            dispatch(result);
+        } catch (RuntimeException e) {
+            log.error("Invalid market data message: {}", message, e);
+        }
+    }
+
+    private void dispatch(JsonObject result) {
+        String subscription = result.getString("subscription", "");
+        if (subscription.equals("trade." + instrument)) {
+            for (Object obj : result.getJsonArray("data")) {
+                JsonObject trade = (JsonObject) obj;
+                values[0] = toLong(trade.getValue("d"));
+                values[1] = toLong(trade.getValue("t"));
+                values[2] = TradeBuffer.toScaled(trade.getValue("p"), scale.getPriceScale());
+                values[3] = TradeBuffer.toScaled(trade.getValue("q"), scale.getQuantityScale());
+                if (values[1] > lastTimestamp || (values[1] == lastTimestamp && values[0] > lastId)) {
+                    lastTimestamp = values[1];
+                    lastId = values[0];
+                }
+                tradeHandler.handle(values);
+            }
+            return;
+        }
+
+        JsonRecordDecoder.RecordHandler candleHandler = candleHandlers.get(subscription);
+        if (Objects.isNull(candleHandler)) return;
+        for (Object obj : result.getJsonArray("data")) {
+            JsonObject candle = (JsonObject) obj;
+            values[0] = toLong(candle.getValue("t"));
+            values[1] = CandleBuffer.toScaled(candle.getValue("o"), scale.getPriceScale());
+            values[2] = CandleBuffer.toScaled(candle.getValue("c"), scale.getPriceScale());
+            values[3] = CandleBuffer.toScaled(candle.getValue("h"), scale.getPriceScale());
+            values[4] = CandleBuffer.toScaled(candle.getValue("l"), scale.getPriceScale());
+            values[5] = CandleBuffer.toScaled(candle.getValue("v"), scale.getQuantityScale());
+            candleHandler.handle(values);
+        }
+    }
+
+    // trade ids are numbers in older API versions and strings in newer ones
+    private static long toLong(Object value) {
+        if (value instanceof Number) return ((Number) value).longValue();
+        return Long.parseLong(String.valueOf(value));
+    }
+}
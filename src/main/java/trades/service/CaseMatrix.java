@@ -0,0 +1,119 @@
+package trades.service;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import trades.consistency.InstrumentScale;
+import trades.util.HttpClient;
+
+import java.util.*;
+
+/**
+ * The (instrument, timeframe) cases of this node, split into shards.
+ * <p>
+ * Instruments are {@code service.instruments}, every instrument of get-instruments with {@code service.discover},
+ * or else the {@code instrument_name} values of the getCandleStick api. Timeframes are {@code service.timeframes}
+ * or its {@code timeframe} values. Discovered instruments keep the price and quantity decimals the exchange lists
+ * for them as their {@link InstrumentScale}. An instrument belongs to node {@code hash % nodes} of {@code service.sharding},
+ * and there to shard {@code hash / nodes % shards}, so nodes deployed with the same config and their own
+ * {@code node} split the instruments without talking to each other.
+ */
+public final class CaseMatrix {
+    private final List<Map<String, List<String>>> shards;
+    private final Map<String, InstrumentScale> scales;
+
+    private CaseMatrix(List<Map<String, List<String>>> shards, Map<String, InstrumentScale> scales) {
+        this.shards = shards;
+        this.scales = scales;
+    }
+
+    public static Future<CaseMatrix> load(Vertx vertx, Map<String, JsonObject> apiInfo, JsonObject config) {
+        JsonObject options = config.getJsonObject("service", new JsonObject());
+        JsonObject sharding = options.getJsonObject("sharding", new JsonObject());
+        int nodes = Math.max(1, sharding.getInteger("nodes", 1));
+        int node = sharding.getInteger("node", 0);
+        int shards = Math.max(1, sharding.getInteger("shards", 1));
+        if (node < 0 || node >= nodes) {
+            return Future.failedFuture(new IllegalArgumentException("Node " + node + " is not one of " + nodes + " nodes"));
+        }
+
+        List<String> timeframes = options.containsKey("timeframes")
+                ? strings(options.getJsonArray("timeframes"))
+                : parameter(apiInfo.get("getCandleStick"), "timeframe");
+        Map<String, InstrumentScale> scales = new HashMap<>();
+        Future<List<String>> instruments;
+        if (options.containsKey("instruments")) {
+            instruments = Future.succeededFuture(strings(options.getJsonArray("instruments")));
+        } else if (options.getBoolean("discover", false)) {
+            instruments = HttpClient.getInstruments(vertx, apiInfo).map(entries -> {
+                List<String> names = new ArrayList<>();
+                for (JsonObject entry : entries) {
+                    String name = entry.getString("instrument_name");
+                    names.add(name);
+                    if (entry.containsKey("price_decimals") || entry.containsKey("quantity_decimals")) {
+                        scales.put(name, InstrumentScale.fromInstrument(entry));
+                    }
+                }
+                return names;
+            });
+        } else {
+            instruments = Future.succeededFuture(parameter(apiInfo.get("getCandleStick"), "instrument_name"));
+        }
+
+        return instruments.map(names -> {
+            List<Map<String, List<String>>> matrix = new ArrayList<>();
+            for (int i = 0; i < shards; i++) matrix.add(new LinkedHashMap<>());
+            for (String instrument : new TreeSet<>(names)) {
+                long hash = hash(instrument);
+                if (hash % nodes != node) continue;
+                matrix.get((int) (hash / nodes % shards)).put(instrument, timeframes);
+            }
+            return new CaseMatrix(matrix, scales);
+        });
+    }
+
+    // cases of each shard by instrument, shards may be empty
+    public List<Map<String, List<String>>> getShards() {
+        return shards;
+    }
+
+    // scales listed by get-instruments, by instrument
+    public Map<String, InstrumentScale> getScales() {
+        return scales;
+    }
+
+    public int getInstruments() {
+        int instruments = 0;
+        for (Map<String, List<String>> shard : shards) instruments += shard.size();
+        return instruments;
+    }
+
+    // String.hashCode is the same on every JVM, mixed so that similar names spread over the nodes
+    private static long hash(String instrument) {
+        int h = instrument.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return Integer.toUnsignedLong(h);
+    }
+
+    // values of the parameter of the api entry in config.json
+    private static List<String> parameter(JsonObject api, String name) {
+        if (Objects.nonNull(api)) {
+            for (Object obj : api.getJsonArray("parameter", new JsonArray())) {
+                JsonObject parameter = (JsonObject) obj;
+                if (name.equals(parameter.getString("name"))) return strings(parameter.getJsonArray("value"));
+            }
+        }
+        return new ArrayList<>();
+    }
+
+    private static List<String> strings(JsonArray array) {
+        List<String> strings = new ArrayList<>();
+        for (Object value : array) strings.add(value.toString());
+        return strings;
+    }
+}
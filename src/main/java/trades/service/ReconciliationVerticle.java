@@ -0,0 +1,289 @@
+package trades.service;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import trades.consistency.CheckReport;
+import trades.consistency.InstrumentScale;
+import trades.consistency.ReconciliationScheduler;
+import trades.consistency.StreamingReconciler;
+import trades.stub.StubExchange;
+import trades.util.Config;
+import trades.util.HttpClient;
+import trades.util.RateLimiter;
+import trades.util.ReconciliationMetrics;
+import trades.util.ResponseCache;
+
+import java.util.*;
+import java.util.function.LongSupplier;
+
+/**
+ * Long-lived reconciliation service.
+ * <p>
+ * Every {@code service.interval} milliseconds a cycle reconciles the cases of the {@link CaseMatrix} of this node,
+ * each shard with its own {@link ReconciliationScheduler}. The shards share one {@link RateLimiter}, so the node sends
+ * at most {@code sharding.rate_limit} requests per second. The shared HTTP client, response cache and metrics live as long as the verticle, so cycles
+ * run on warm connections, caches and JIT.
+ * <p>
+ * With {@code service.mode} "streaming" there are no cycles: every instrument has a {@link StreamingReconciler} that
+ * checks each candle once it has closed, and the result of a case is the status of its latest candle with the candles
+ * and (the latest {@code MAX_MISMATCHES}) mismatches since the start. Results are served on {@code service.port}:
+ * <ul>
+ *     <li>{@code GET /reconciliations}: the cases of this node and the latest result of every case</li>
+ *     <li>{@code GET /reconciliations/{instrument}/{timeframe}}: the latest result of the case, with
+ *     {@code ?wait=true} the result of the running cycle once it is done (of the next candle when streaming)</li>
+ *     <li>{@code POST /reconciliations/run}: start a cycle unless one is running, when streaming check the candles
+ *     closed by now</li>
+ *     <li>{@code GET /metrics}: Prometheus scrape, if metrics are enabled</li>
+ * </ul>
+ */
+public class ReconciliationVerticle extends AbstractVerticle {
+    private final static Logger log = LoggerFactory.getLogger(ReconciliationVerticle.class);
+    private final static String PATH = "/reconciliations";
+    private final static int MAX_MISMATCHES = 100;
+
+    private final List<ReconciliationScheduler> schedulers = new ArrayList<>();
+    private final List<StreamingReconciler> reconcilers = new ArrayList<>();
+    private final List<Map<String, List<String>>> shards = new ArrayList<>();
+    // report of each case in the latest cycle, and the result of the latest completed one
+    private final Map<String, Future<CheckReport>> reports = new HashMap<>();
+    private final Map<String, JsonObject> results = new LinkedHashMap<>();
+    // next candle report of each streamed case
+    private final Map<String, Promise<CheckReport>> nextReports = new HashMap<>();
+
+    // time of the streaming reconcilers and the stub exchange, null for the wall clock
+    private LongSupplier clock;
+    private StubExchange stub;
+    private HttpServer server;
+    private long timerId = -1;
+    private long cycle;
+    private boolean running;
+    private long startedAt;
+    private long finishedAt;
+
+    @Override
+    public void start(Promise<Void> startPromise) {
+        JsonObject config = config().copy();
+        JsonObject options = config.getJsonObject("service", new JsonObject());
+        JsonObject sharding = options.getJsonObject("sharding", new JsonObject());
+        boolean streaming = "streaming".equals(options.getString("mode", "batch"));
+        // one clock instance, so that the reconcilers share the cache running on it
+        LongSupplier time = Objects.isNull(clock) ? System::currentTimeMillis : clock;
+
+        HttpClient.init(vertx, config);
+        ResponseCache.init(vertx, config, time);
+
+        // serve the APIs from the local stub exchange instead of the sandbox
+        JsonObject stubOptions = config.getJsonObject("stub", new JsonObject());
+        Future<Void> stubStarted = Future.succeededFuture();
+        if (stubOptions.getBoolean("enabled", false)) {
+            stub = new StubExchange(vertx, stubOptions);
+            if (Objects.nonNull(clock)) stub.clock(clock);
+            stubStarted = stub.start().onSuccess(s -> stubOptions.put("port", s.actualPort())).mapEmpty();
+        }
+
+        stubStarted
+                .compose(v -> ReconciliationMetrics.init(vertx, config))
+                .compose(v -> CaseMatrix.load(vertx, Config.apiInfo(config), config))
+                .compose(matrix -> {
+                    // the rate of the node, not of each shard
+                    double rate = sharding.getDouble("rate_limit", 0.0);
+                    RateLimiter limiter = rate > 0 ? new RateLimiter(vertx, rate, sharding.getDouble("burst", rate)) : null;
+                    for (Map<String, List<String>> shard : matrix.getShards()) {
+                        if (shard.isEmpty()) continue;
+                        if (Objects.nonNull(limiter)) {
+                            for (String instrument : shard.keySet()) RateLimiter.register(vertx, instrument, limiter);
+                        }
+                        shards.add(shard);
+                        if (!streaming) {
+                            schedulers.add(new ReconciliationScheduler(vertx, Config.apiInfo(config), config, matrix.getScales()));
+                            continue;
+                        }
+                        for (Map.Entry<String, List<String>> entry : shard.entrySet()) {
+                            for (String timeframe : entry.getValue()) {
+                                awaitReport(ReconciliationScheduler.caseName(entry.getKey(), timeframe));
+                            }
+                            reconcilers.add(new StreamingReconciler(vertx, Config.apiInfo(config), config, entry.getKey(),
+                                    InstrumentScale.fromConfig(config, entry.getKey(), matrix.getScales().get(entry.getKey())),
+                                    entry.getValue(), this::streamed, time));
+                        }
+                    }
+                    log.info("Reconciling {} instruments in {} shards{}", matrix.getInstruments(), shards.size(), streaming ? ", streaming" : "");
+                    return vertx.createHttpServer().requestHandler(this::handle).listen(options.getInteger("port", 8090));
+                })
+                .onSuccess(s -> {
+                    server = s;
+                    log.info("Reconciliation service listening on port {}", s.actualPort());
+                    if (streaming) {
+                        // the reconcilers check their closed candles themselves
+                        for (StreamingReconciler reconciler : reconcilers) reconciler.start();
+                        return;
+                    }
+                    run();
+                    timerId = vertx.setPeriodic(options.getLong("interval", 3_600_000L), id -> run());
+                })
+                .<Void>mapEmpty()
+                .onComplete(startPromise);
+    }
+
+    @Override
+    public void stop() {
+        if (timerId >= 0) vertx.cancelTimer(timerId);
+        for (StreamingReconciler reconciler : reconcilers) reconciler.stop();
+        for (ReconciliationScheduler scheduler : schedulers) scheduler.close();
+        if (Objects.nonNull(server)) server.close();
+        if (Objects.nonNull(stub)) stub.close();
+        ReconciliationMetrics.close(vertx);
+        RateLimiter.close(vertx);
+        ResponseCache.close(vertx);
+        HttpClient.close(vertx);
+    }
+
+    // set before deploying, the stub exchange then publishes its trades as the clock passes them
+    public ReconciliationVerticle clock(LongSupplier clock) {
+        this.clock = Objects.requireNonNull(clock);
+        return this;
+    }
+
+    public int actualPort() {
+        return Objects.isNull(server) ? -1 : server.actualPort();
+    }
+
+    // start a cycle unless one is running, returns the number of the running cycle
+    private long run() {
+        if (running) return cycle;
+        running = true;
+        long current = ++cycle;
+        startedAt = System.currentTimeMillis();
+        log.info("Start reconciliation cycle {}", current);
+
+        if (!reconcilers.isEmpty()) {
+            List<Future<Void>> finalized = new ArrayList<>();
+            for (StreamingReconciler reconciler : reconcilers) finalized.add(reconciler.finalizeClosed());
+            CompositeFuture.join(new ArrayList<>(finalized)).onComplete(ar -> {
+                running = false;
+                finishedAt = System.currentTimeMillis();
+                log.info("Reconciliation cycle {} done in {} ms: closed candles checked", current, finishedAt - startedAt);
+            });
+            return current;
+        }
+
+        Map<String, Future<CheckReport>> scheduled = new LinkedHashMap<>();
+        for (int i = 0; i < shards.size(); i++) scheduled.putAll(schedulers.get(i).schedule(shards.get(i)));
+        reports.putAll(scheduled);
+        for (Map.Entry<String, Future<CheckReport>> entry : scheduled.entrySet()) {
+            String caseName = entry.getKey();
+            entry.getValue().onComplete(ar -> results.put(caseName, result(caseName, current, ar)));
+        }
+
+        CompositeFuture.join(new ArrayList<>(scheduled.values())).onComplete(ar -> {
+            running = false;
+            finishedAt = System.currentTimeMillis();
+            long passed = scheduled.values().stream().filter(f -> f.succeeded() && f.result().isPass()).count();
+            log.info("Reconciliation cycle {} done in {} ms: {} of {} cases passed", current, finishedAt - startedAt, passed, scheduled.size());
+        });
+        return current;
+    }
+
+    private void handle(HttpServerRequest req) {
+        String path = req.path();
+        if (req.method() == HttpMethod.GET && PATH.equals(path)) {
+            JsonArray cases = new JsonArray();
+            for (Map<String, List<String>> shard : shards) {
+                for (Map.Entry<String, List<String>> entry : shard.entrySet()) {
+                    for (String timeframe : entry.getValue()) {
+                        cases.add(new JsonObject().put("instrument", entry.getKey()).put("timeframe", timeframe));
+                    }
+                }
+            }
+            JsonObject body = new JsonObject()
+                    .put("cases", cases)
+                    .put("cycle", cycle)
+                    .put("running", running)
+                    .put("started_at", startedAt)
+                    .put("finished_at", finishedAt)
+                    .put("results", new JsonArray(new ArrayList<>(results.values())));
+            respond(req, 200, body);
+        } else if (req.method() == HttpMethod.POST && (PATH + "/run").equals(path)) {
+            long started = run();
+            respond(req, 202, new JsonObject().put("cycle", started).put("running", true));
+        } else if (req.method() == HttpMethod.GET && path.startsWith(PATH + "/")) {
+            String[] segments = path.substring(PATH.length() + 1).split("/");
+            String caseName = segments.length == 2 ? ReconciliationScheduler.caseName(segments[0], segments[1]) : null;
+            Future<CheckReport> report = Objects.isNull(caseName) ? null : reports.get(caseName);
+            if (Objects.isNull(report)) {
+                respond(req, 404, new JsonObject().put("message", "Unknown case: " + path.substring(PATH.length())));
+            } else if (Boolean.parseBoolean(req.getParam("wait")) && !report.isComplete()) {
+                report.onComplete(ar -> respond(req, 200, results.get(caseName)));
+            } else if (results.containsKey(caseName)) {
+                respond(req, 200, results.get(caseName));
+            } else {
+                respond(req, 200, new JsonObject().put("case", caseName).put("cycle", cycle).put("status", "PENDING"));
+            }
+        } else if (req.method() == HttpMethod.GET && "/metrics".equals(path) && Objects.nonNull(ReconciliationMetrics.scrape(vertx))) {
+            req.response().putHeader("content-type", "text/plain; version=0.0.4; charset=utf-8").end(ReconciliationMetrics.scrape(vertx));
+        } else {
+            respond(req, 404, new JsonObject().put("message", "Not found: " + req.method() + " " + path));
+        }
+    }
+
+    // fold the report of one streamed candle into the result of its case, then wake up the requests waiting for it
+    private void streamed(CheckReport report) {
+        String caseName = ReconciliationScheduler.caseName(report.getInstrument(), report.getTimeframe());
+        JsonObject previous = results.get(caseName);
+        JsonArray mismatches = Objects.isNull(previous) ? new JsonArray() : previous.getJsonArray("mismatches");
+        for (String mismatch : report.getMismatches()) mismatches.add(mismatch);
+        while (mismatches.size() > MAX_MISMATCHES) mismatches.remove(0);
+
+        results.put(caseName, new JsonObject()
+                .put("case", caseName)
+                .put("cycle", cycle)
+                .put("finished_at", System.currentTimeMillis())
+                .put("instrument", report.getInstrument())
+                .put("timeframe", report.getTimeframe())
+                .put("status", report.isPass() ? "PASS" : "FAIL")
+                .put("candles", report.getCandles() + (Objects.isNull(previous) ? 0 : previous.getInteger("candles")))
+                .put("failed_candles", (report.isPass() ? 0 : 1) + (Objects.isNull(previous) ? 0 : previous.getInteger("failed_candles")))
+                .put("mismatches", mismatches));
+
+        Promise<CheckReport> next = awaitReport(caseName);
+        if (Objects.nonNull(next)) next.complete(report);
+    }
+
+    // served as the report of the case until the next candle is reported, returns the promise it replaces
+    private Promise<CheckReport> awaitReport(String caseName) {
+        Promise<CheckReport> next = Promise.promise();
+        reports.put(caseName, next.future());
+        return nextReports.put(caseName, next);
+    }
+
+    private static JsonObject result(String caseName, long cycle, AsyncResult<CheckReport> ar) {
+        JsonObject result = new JsonObject()
+                .put("case", caseName)
+                .put("cycle", cycle)
+                .put("finished_at", System.currentTimeMillis());
+        if (ar.failed()) {
+            return result.put("status", "ERROR").put("error", String.valueOf(ar.cause().getMessage()));
+        }
+        CheckReport report = ar.result();
+        return result
+                .put("instrument", report.getInstrument())
+                .put("timeframe", report.getTimeframe())
+                .put("status", report.isPass() ? "PASS" : "FAIL")
+                .put("candles", report.getCandles())
+                .put("mismatches", new JsonArray(new ArrayList<>(report.getMismatches())));
+    }
+
+    private static void respond(HttpServerRequest req, int status, JsonObject body) {
+        req.response().setStatusCode(status).putHeader("content-type", "application/json").end(body.encode());
+    }
+}
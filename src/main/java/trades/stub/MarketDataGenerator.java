@@ -0,0 +1,220 @@
+package trades.stub;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import trades.consistency.*;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Seeded synthetic trades and candles of many instruments, the same for the same options.
+ * <p>
+ * Trades arrive as a Poisson process of {@code trades_per_second} from {@code start} for {@code duration}
+ * milliseconds, with prices on a random walk of ticks. Candles are aggregated from all trades with the exchange
+ * convention, a candle starting at {@code s} holds the trades in {@code (s, s + period]}. Faults ({@code faults}):
+ * <ul>
+ *     <li>{@code missing_trades}: fraction of trades counted in the candles but never returned by get-trades</li>
+ *     <li>{@code wrong_high_low}: fraction of candles whose high is one tick too high or low one tick too low</li>
+ *     <li>{@code late_trades}: fraction of trades published by get-trades {@code late_delay} ms after their time</li>
+ * </ul>
+ */
+public final class MarketDataGenerator {
+    // trades of one instrument sorted by (timestamp, id)
+    private static final class Series {
+        final int index;
+        final TradeBuffer trades;
+        final long[] published;
+        final boolean[] missing;
+        // trade indexes by (publish time, trade index)
+        final int[] byPublished;
+        final Map<String, CandleBuffer> candles = new ConcurrentHashMap<>();
+
+        Series(int index, TradeBuffer trades, long[] published, boolean[] missing) {
+            this.index = index;
+            this.trades = trades;
+            this.published = published;
+            this.missing = missing;
+            this.byPublished = new int[trades.size()];
+
+            // on time and late trades are each in publish order already, merge the two
+            int size = trades.size(), onTime = 0, late = 0;
+            while (onTime < size && published[onTime] != trades.timestamp(onTime)) onTime++;
+            while (late < size && published[late] == trades.timestamp(late)) late++;
+            for (int i = 0; i < size; i++) {
+                boolean takeOnTime = late >= size || (onTime < size
+                        && (published[onTime] < published[late] || (published[onTime] == published[late] && onTime < late)));
+                if (takeOnTime) {
+                    byPublished[i] = onTime++;
+                    while (onTime < size && published[onTime] != trades.timestamp(onTime)) onTime++;
+                } else {
+                    byPublished[i] = late++;
+                    while (late < size && published[late] == trades.timestamp(late)) late++;
+                }
+            }
+        }
+    }
+
+    private final long seed;
+    private final long start;
+    private final long duration;
+    private final double tradesPerSecond;
+    private final InstrumentScale scale;
+    private final double missingTrades;
+    private final double wrongHighLow;
+    private final double lateTrades;
+    private final long lateDelay;
+    private final Map<String, Series> series = new LinkedHashMap<>();
+
+    public MarketDataGenerator(JsonObject options) {
+        if (Objects.isNull(options)) options = new JsonObject();
+        JsonObject faults = options.getJsonObject("faults", new JsonObject());
+        this.seed = options.getLong("seed", 42L);
+        this.start = options.getLong("start", 1_650_000_000_000L);
+        this.duration = options.getLong("duration", 3_600_000L);
+        this.tradesPerSecond = options.getDouble("trades_per_second", 5.0);
+        this.scale = new InstrumentScale(options.getInteger("price_decimals", 2), options.getInteger("quantity_decimals", 4));
+        this.missingTrades = faults.getDouble("missing_trades", 0.0);
+        this.wrongHighLow = faults.getDouble("wrong_high_low", 0.0);
+        this.lateTrades = faults.getDouble("late_trades", 0.0);
+        this.lateDelay = faults.getLong("late_delay", 60_000L);
+
+        long price = FixedPoint.parse(String.valueOf(options.getValue("price", 100)), scale.getPriceScale());
+        List<String> instruments = instruments(options.getValue("instruments", 3));
+        for (int i = 0; i < instruments.size(); i++) {
+            series.put(instruments.get(i), generate(i, price));
+        }
+    }
+
+    // "instruments" is either a list of names or a number of synthetic instruments
+    private static List<String> instruments(Object value) {
+        List<String> instruments = new ArrayList<>();
+        if (value instanceof JsonArray) {
+            for (Object name : (JsonArray) value) instruments.add(name.toString());
+        } else {
+            int count = ((Number) value).intValue();
+            for (int i = 0; i < count; i++) instruments.add(String.format("SYN%03d_USDT", i));
+        }
+        return instruments;
+    }
+
+    public List<String> getInstruments() {
+        return new ArrayList<>(series.keySet());
+    }
+
+    public InstrumentScale getScale() {
+        return scale;
+    }
+
+    public boolean contains(String instrument) {
+        return series.containsKey(instrument);
+    }
+
+    // every generated trade of the instrument, missing and late ones included
+    public TradeBuffer getTrades(String instrument) {
+        return series(instrument).trades;
+    }
+
+    /**
+     * Indexes (in {@link #getTrades(String)}) of the latest trades published at or before the time, newest first,
+     * as get-trades returns them. Missing trades are never returned.
+     */
+    public int[] latestTrades(String instrument, long now, int count) {
+        Series s = series(instrument);
+        int[] page = new int[Math.min(count, s.trades.size())];
+        int size = 0;
+        for (int i = lastPublished(s, now); i >= 0 && size < page.length; i--) {
+            int trade = s.byPublished[i];
+            if (!s.missing[trade]) page[size++] = trade;
+        }
+        return Arrays.copyOf(page, size);
+    }
+
+    /**
+     * Candles of the timeframe, faults included. Calendar timeframes (1M) follow UTC month boundaries.
+     */
+    public CandleBuffer getCandles(String instrument, String timeframe) {
+        Series s = series(instrument);
+        return s.candles.computeIfAbsent(timeframe, tf -> candles(s, tf));
+    }
+
+    private Series series(String instrument) {
+        Series s = series.get(instrument);
+        if (Objects.isNull(s)) throw new IllegalArgumentException("Unknown instrument: " + instrument);
+        return s;
+    }
+
+    private Series generate(int index, long initialPrice) {
+        Random random = new Random(seed * 1_000_003L + index);
+        long tick = 1, lot = 1;
+        long maxLots = FixedPoint.parse("1", scale.getQuantityScale());
+
+        int capacity = (int) Math.min(Integer.MAX_VALUE - 8, (long) (tradesPerSecond * duration / 1000 * 1.1) + 16);
+        TradeBuffer trades = new TradeBuffer(capacity, scale.getPriceScale(), scale.getQuantityScale());
+        long[] published = new long[capacity];
+        boolean[] missing = new boolean[capacity];
+
+        long id = (long) (index + 1) * 1_000_000_000_000L;
+        double time = start;
+        long price = initialPrice;
+        while (true) {
+            // exponential inter-arrival times of a Poisson process
+            time += -Math.log(1 - random.nextDouble()) * 1000 / tradesPerSecond;
+            long timestamp = (long) time;
+            if (timestamp >= start + duration) break;
+
+            price = Math.max(tick, price + (random.nextInt(7) - 3) * tick);
+            long quantity = Math.max(lot, (long) (random.nextDouble() * maxLots));
+            int i = trades.size();
+            if (i == published.length) {
+                published = Arrays.copyOf(published, i << 1);
+                missing = Arrays.copyOf(missing, i << 1);
+            }
+            trades.add(++id, timestamp, price, quantity);
+            published[i] = random.nextDouble() < lateTrades ? timestamp + lateDelay : timestamp;
+            missing[i] = random.nextDouble() < missingTrades;
+        }
+
+        return new Series(index, trades, Arrays.copyOf(published, trades.size()), Arrays.copyOf(missing, trades.size()));
+    }
+
+    private int lastPublished(Series s, long now) {
+        int lo = 0, hi = s.byPublished.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (s.published[s.byPublished[mid]] <= now) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo - 1;
+    }
+
+    private CandleBuffer candles(Series s, String timeframe) {
+        CandleBuffer candles = new CandleBuffer(scale);
+        TradeBuffer trades = s.trades;
+        if (trades.size() == 0) return candles;
+
+        Timeframe period = Timeframe.of(timeframe);
+        CandleAggregator aggregator = new CandleAggregator(trades).prepare(period.isFixed() ? period.getMillis() : 86_400_000L);
+        Random random = new Random(seed * 1_000_003L + s.index * 31L + timeframe.hashCode());
+
+        long last = trades.timestamp(trades.size() - 1);
+        Timeframe.Boundaries boundaries = period.boundaries(trades.timestamp(0) - 1, last);
+        long begin = boundaries.start(trades.timestamp(0));
+        Ohlcv ohlcv = new Ohlcv();
+        while (begin < last) {
+            long end = boundaries.end(begin);
+            aggregator.aggregate(begin, end, ohlcv);
+            if (ohlcv.getCount() > 0) {
+                long high = ohlcv.getHigh(), low = ohlcv.getLow();
+                if (random.nextDouble() < wrongHighLow) {
+                    // one tick off, a low of one tick cannot go lower so the high is wrong instead
+                    if (random.nextBoolean() || low <= 1) high = FixedPoint.add(high, 1);
+                    else low = FixedPoint.subtract(low, 1);
+                }
+                candles.add(begin, ohlcv.getOpen(), ohlcv.getClose(), high, low, ohlcv.getVolume());
+            }
+            begin = end;
+        }
+        return candles;
+    }
+}
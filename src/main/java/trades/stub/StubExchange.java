@@ -0,0 +1,177 @@
+package trades.stub;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import trades.consistency.CandleBuffer;
+import trades.consistency.FixedPoint;
+import trades.consistency.TradeBuffer;
+
+import java.util.Objects;
+import java.util.function.LongSupplier;
+
+/**
+ * Local exchange serving {@code /v2/public/get-instruments}, {@code /v2/public/get-trades} and
+ * {@code /v2/public/get-candlestick} from a {@link MarketDataGenerator}, configured by the {@code stub} section of config.json.
+ * <p>
+ * Without {@code replay_speed} every generated trade is already published. With it, the exchange clock starts at
+ * the first generated trade and runs {@code replay_speed} times faster than the wall clock, so get-trades returns
+ * a moving window of the latest {@code page_size} trades like the real exchange does.
+ */
+public class StubExchange {
+    private final static Logger log = LoggerFactory.getLogger(StubExchange.class);
+
+    private final Vertx vertx;
+    private final MarketDataGenerator generator;
+    private final int port;
+    private final int pageSize;
+    private final long start;
+    private final double replaySpeed;
+
+    private HttpServer server;
+    private LongSupplier clock = () -> Long.MAX_VALUE;
+
+    public StubExchange(Vertx vertx, JsonObject options) {
+        if (Objects.isNull(options)) options = new JsonObject();
+        this.vertx = vertx;
+        this.generator = new MarketDataGenerator(options);
+        this.port = options.getInteger("port", 8085);
+        this.pageSize = options.getInteger("page_size", 200);
+        this.start = options.getLong("start", 1_650_000_000_000L);
+        this.replaySpeed = options.getDouble("replay_speed", 0.0);
+    }
+
+    public MarketDataGenerator getGenerator() {
+        return generator;
+    }
+
+    // time of the exchange, trades are published once it has passed their publish time
+    public StubExchange clock(LongSupplier clock) {
+        this.clock = Objects.requireNonNull(clock);
+        return this;
+    }
+
+    // completes with the server once listening on localhost, port 0 picks a free port
+    public Future<HttpServer> start() {
+        if (replaySpeed > 0) {
+            long started = System.currentTimeMillis();
+            clock = () -> start + (long) ((System.currentTimeMillis() - started) * replaySpeed);
+        }
+        return vertx.createHttpServer()
+                .requestHandler(this::handle)
+                .listen(port, "localhost")
+                .onSuccess(s -> {
+                    server = s;
+                    log.info("Stub exchange listening on port {} with instruments {}", s.actualPort(), generator.getInstruments());
+                });
+    }
+
+    public int actualPort() {
+        return Objects.isNull(server) ? port : server.actualPort();
+    }
+
+    public Future<Void> close() {
+        return Objects.isNull(server) ? Future.succeededFuture() : server.close();
+    }
+
+    private void handle(HttpServerRequest req) {
+        if ("/v2/public/get-instruments".equals(req.path())) {
+            req.response().putHeader("content-type", "application/json").end(instruments());
+            return;
+        }
+
+        String instrument = req.getParam("instrument_name");
+        if (Objects.isNull(instrument) || !generator.contains(instrument)) {
+            error(req, 400, 10004, "BAD_REQUEST");
+            return;
+        }
+
+        switch (req.path()) {
+            case "/v2/public/get-trades":
+                req.response().putHeader("content-type", "application/json").end(trades(instrument));
+                break;
+            case "/v2/public/get-candlestick":
+                String timeframe = req.getParam("timeframe", "1m");
+                long startTs = Long.parseLong(req.getParam("start_ts", String.valueOf(Long.MIN_VALUE)));
+                // the candles of a timeframe are built once, off the event loop
+                vertx.<Buffer>executeBlocking(promise -> promise.complete(candles(instrument, timeframe, startTs)), false)
+                        .onFailure(e -> error(req, 400, 10004, e.getMessage()))
+                        .onSuccess(body -> req.response().putHeader("content-type", "application/json").end(body));
+                break;
+            default:
+                error(req, 404, 10001, "NOT_FOUND");
+        }
+    }
+
+    private Buffer instruments() {
+        JsonArray instruments = new JsonArray();
+        for (String instrument : generator.getInstruments()) {
+            instruments.add(new JsonObject()
+                    .put("instrument_name", instrument)
+                    .put("price_decimals", generator.getScale().getPriceScale())
+                    .put("quantity_decimals", generator.getScale().getQuantityScale()));
+        }
+        return new JsonObject()
+                .put("code", 0)
+                .put("method", "public/get-instruments")
+                .put("result", new JsonObject().put("instruments", instruments))
+                .toBuffer();
+    }
+
+    private Buffer trades(String instrument) {
+        TradeBuffer trades = generator.getTrades(instrument);
+        int priceScale = trades.priceScale(), quantityScale = trades.quantityScale();
+
+        StringBuilder body = new StringBuilder(128 + pageSize * 96)
+                .append("{\"code\":0,\"method\":\"public/get-trades\",\"result\":{\"instrument_name\":\"")
+                .append(instrument).append("\",\"data\":[");
+        int[] page = generator.latestTrades(instrument, clock.getAsLong(), pageSize);
+        for (int i = 0; i < page.length; i++) {
+            int trade = page[i];
+            if (i > 0) body.append(',');
+            body.append("{\"dataTime\":").append(trades.timestamp(trade))
+                    .append(",\"d\":").append(trades.id(trade))
+                    .append(",\"s\":\"").append((trades.id(trade) & 1) == 0 ? "BUY" : "SELL")
+                    .append("\",\"p\":").append(FixedPoint.toString(trades.price(trade), priceScale))
+                    .append(",\"q\":").append(FixedPoint.toString(trades.quantity(trade), quantityScale))
+                    .append(",\"t\":").append(trades.timestamp(trade))
+                    .append(",\"i\":\"").append(instrument).append("\"}");
+        }
+        return Buffer.buffer(body.append("]}}").toString());
+    }
+
+    // candles starting from startTs that have started by now
+    private Buffer candles(String instrument, String timeframe, long startTs) {
+        CandleBuffer candles = generator.getCandles(instrument, timeframe);
+        int priceScale = candles.priceScale(), quantityScale = candles.quantityScale();
+        long now = clock.getAsLong();
+
+        StringBuilder body = new StringBuilder(128 + candles.size() * 96)
+                .append("{\"code\":0,\"method\":\"public/get-candlestick\",\"result\":{\"instrument_name\":\"")
+                .append(instrument).append("\",\"interval\":\"").append(timeframe).append("\",\"data\":[");
+        boolean first = true;
+        for (int i = 0; i < candles.size() && candles.timestamp(i) < now; i++) {
+            if (candles.timestamp(i) < startTs) continue;
+            if (!first) body.append(',');
+            first = false;
+            body.append("{\"t\":").append(candles.timestamp(i))
+                    .append(",\"o\":").append(FixedPoint.toString(candles.open(i), priceScale))
+                    .append(",\"h\":").append(FixedPoint.toString(candles.high(i), priceScale))
+                    .append(",\"l\":").append(FixedPoint.toString(candles.low(i), priceScale))
+                    .append(",\"c\":").append(FixedPoint.toString(candles.close(i), priceScale))
+                    .append(",\"v\":").append(FixedPoint.toString(candles.volume(i), quantityScale)).append('}');
+        }
+        return Buffer.buffer(body.append("]}}").toString());
+    }
+
+    private static void error(HttpServerRequest req, int status, int code, String message) {
+        req.response().setStatusCode(status).putHeader("content-type", "application/json")
+                .end(new JsonObject().put("code", code).put("message", message).encode());
+    }
+}
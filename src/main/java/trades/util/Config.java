@@ -0,0 +1,55 @@
+package trades.util;
+
+import io.vertx.core.json.JsonObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+public class Config {
+    public static JsonObject loadConfig(String filename) {
+        InputStream inputStream = ClassLoader.getSystemResourceAsStream(filename);
+        if (Objects.isNull(inputStream)) {
+            return null;
+        }
+
+        String result = new BufferedReader(new InputStreamReader(inputStream))
+                .lines()
+                .collect(Collectors.joining("\n"));
+
+        return new JsonObject(result);
+    }
+
+    // config file outside the classpath, such as the config of a deployed service
+    public static JsonObject loadConfigFile(String path) {
+        try {
+            return new JsonObject(Files.readString(Paths.get(path)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Config file can not be read: " + path, e);
+        }
+    }
+
+    // API info by name from the "api" entries, pointed at the local stub exchange when "stub" is enabled
+    public static Map<String, JsonObject> apiInfo(JsonObject config) {
+        Map<String, JsonObject> apiInfo = new HashMap<>();
+        JsonObject stub = config.getJsonObject("stub", new JsonObject());
+        for (Object obj : config.getJsonArray("api")) {
+            JsonObject api = (JsonObject) obj;
+            if (api.containsKey("name")) {
+                if (stub.getBoolean("enabled", false)) {
+                    api = api.copy().put("domain", "localhost").put("port", stub.getInteger("port", 8085));
+                }
+                apiInfo.put(api.getString("name"), api);
+            }
+        }
+        return apiInfo;
+    }
+}
@@ -0,0 +1,197 @@
+package trades.util;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.HttpRequest;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.client.WebClientOptions;
+import io.vertx.ext.web.codec.BodyCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import trades.consistency.CandleBuffer;
+import trades.consistency.JsonRecordDecoder;
+import trades.consistency.TradeBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class HttpClient {
+    private final static Logger log = LoggerFactory.getLogger(HttpClient.class);
+
+    // one long-lived client, and so one connection pool, per Vertx instance
+    private final static Map<Vertx, WebClient> clients = new ConcurrentHashMap<>();
+
+    // create the shared client of the Vertx instance with the "client" options of config.json
+    public static WebClient init(Vertx vertx, JsonObject config) {
+        JsonObject options = Objects.isNull(config) ? null : config.getJsonObject("client");
+        WebClient client = WebClient.create(vertx, clientOptions(options));
+        WebClient previous = clients.put(vertx, client);
+        if (Objects.nonNull(previous)) previous.close();
+        return client;
+    }
+
+    // close the shared client of the Vertx instance, call before closing Vertx
+    public static void close(Vertx vertx) {
+        WebClient client = clients.remove(vertx);
+        if (Objects.nonNull(client)) client.close();
+    }
+
+    public static WebClient client(Vertx vertx) {
+        return clients.computeIfAbsent(vertx, v -> WebClient.create(v, clientOptions(null)));
+    }
+
+    public static WebClientOptions clientOptions(JsonObject options) {
+        if (Objects.isNull(options)) options = new JsonObject();
+
+        WebClientOptions clientOptions = new WebClientOptions()
+                .setMaxPoolSize(options.getInteger("max_pool_size", 8))
+                .setKeepAlive(options.getBoolean("keep_alive", true))
+                .setKeepAliveTimeout(options.getInteger("keep_alive_timeout", 60))
+                .setPipelining(options.getBoolean("pipelining", true))
+                .setPipeliningLimit(options.getInteger("pipelining_limit", 10))
+                .setConnectTimeout(options.getInteger("connect_timeout", 5000))
+                .setIdleTimeout(options.getInteger("idle_timeout", 60))
+                .setTryUseCompression(options.getBoolean("compression", true));
+
+        // HTTP/2 over clear text is negotiated with an upgrade request, servers without it stay on HTTP/1.1
+        if (options.getBoolean("http2", false)) {
+            clientOptions.setProtocolVersion(HttpVersion.HTTP_2)
+                    .setHttp2ClearTextUpgrade(true)
+                    .setHttp2MaxPoolSize(options.getInteger("http2_max_pool_size", 1))
+                    .setHttp2MultiplexingLimit(options.getInteger("http2_multiplexing_limit", -1));
+        }
+        return clientOptions;
+    }
+
+    private static <T> Future<HttpResponse<T>> getResponse(
+            Vertx vertx, String domain, String path, Integer port, String method, Map<String, String> headers, Map<String, String> parameters, Buffer body,
+            BodyCodec<T> codec
+    ) {
+        Promise<HttpResponse<T>> promise = Promise.promise();
+
+        try {
+            WebClient client = client(vertx);
+            HttpRequest<Buffer> req;
+
+            switch (method.toUpperCase()) {
+                case "GET":
+                    req = client.get(port, domain, path);
+                    break;
+                case "PUT":
+                    req = client.put(port, domain, path);
+                    break;
+                case "POST":
+                    req = client.post(port, domain, path);
+                    break;
+                default:
+                    promise.fail("Not verified method: " + method);
+                    return promise.future();
+            }
+
+            // add headers to the request
+            if (Objects.nonNull(headers)) {
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    req.putHeader(header.getKey(), header.getValue());
+                }
+            }
+
+            // add parameters to the request
+            if (Objects.nonNull(parameters)) {
+                for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+                    req.addQueryParam(parameter.getKey(), parameter.getValue());
+                }
+            }
+
+            // send request with the body if any, the response body is decoded by the codec
+            HttpRequest<T> codecReq = req.as(codec);
+            (Objects.nonNull(body) ? codecReq.sendBuffer(body) : codecReq.send())
+                    .onFailure(promise::fail)
+                    .onSuccess(promise::complete);
+
+        } catch (Exception e) {
+            promise.tryFail(e);
+        }
+
+        return promise.future();
+    }
+
+    // stream the candles of the response into the candle buffer, completes with the number of candles
+    public static Future<Integer> getCandleStick(Vertx vertx, Map<String, JsonObject> apiInfo, Map<String, String> parameters, CandleBuffer candles) {
+        return getRecords(vertx, apiInfo.get("getCandleStick"), "CandleStick", parameters, JsonRecordDecoder.forCandles(candles));
+    }
+
+    // stream the trades of the response into the trade buffer, completes with the number of trades in the response
+    public static Future<Integer> getTrades(Vertx vertx, Map<String, JsonObject> apiInfo, Map<String, String> parameters, TradeBuffer trades) {
+        return getRecords(vertx, apiInfo.get("getTrades"), "Trades", parameters, JsonRecordDecoder.forTrades(trades));
+    }
+
+    // stream the trades of the response into the decoder, completes with the number of trades in the response
+    public static Future<Integer> getTrades(Vertx vertx, Map<String, JsonObject> apiInfo, Map<String, String> parameters, JsonRecordDecoder decoder) {
+        return getRecords(vertx, apiInfo.get("getTrades"), "Trades", parameters, decoder);
+    }
+
+    // instrument entries of get-instruments, with the instrument_name and price_decimals and quantity_decimals if listed
+    public static Future<List<JsonObject>> getInstruments(Vertx vertx, Map<String, JsonObject> apiInfo) {
+        JsonObject api = apiInfo.get("getInstruments");
+        String path = api.getString("path");
+        log.debug("Query Instruments API with domain: {}, path: {}", api.getString("domain"), path);
+
+        long start = System.nanoTime();
+        return getResponse(vertx, api.getString("domain"), path, api.getInteger("port", 80), "get", null, null, null, BodyCodec.buffer())
+                .onFailure(e -> ReconciliationMetrics.request(path, "error", System.nanoTime() - start, 0))
+                .compose(res -> {
+                    Buffer buffer = Objects.isNull(res.body()) ? Buffer.buffer() : res.body();
+                    ReconciliationMetrics.request(path, String.valueOf(res.statusCode()), System.nanoTime() - start, buffer.length());
+                    JsonObject body = res.statusCode() == 200 ? buffer.toJsonObject() : null;
+                    if (Objects.isNull(body) || body.getLong("code", -1L) != 0) {
+                        return Future.failedFuture("get-instruments failed, http status: " + res.statusCode() + ", body: " + body);
+                    }
+                    List<JsonObject> instruments = new ArrayList<>();
+                    for (Object instrument : body.getJsonObject("result").getJsonArray("instruments")) {
+                        instruments.add((JsonObject) instrument);
+                    }
+                    return Future.succeededFuture(instruments);
+                });
+    }
+
+    private static Future<Integer> getRecords(Vertx vertx, JsonObject api, String name, Map<String, String> parameters, JsonRecordDecoder decoder) {
+        Promise<Integer> promise = Promise.promise();
+
+        String domain = api.getString("domain");
+        String path = api.getString("path");
+
+        log.debug("Query {} API with domain: {}, path: {}, parameters: {}", name, domain, path, parameters);
+        // requests of a rate limited shard wait for their turn first, the latency excludes the wait
+        RateLimiter.acquire(vertx, parameters.get("instrument_name")).onSuccess(v -> {
+            long start = System.nanoTime();
+            getResponse(vertx, domain, path, api.getInteger("port", 80), "get", null, parameters, null, BodyCodec.pipe(decoder))
+                    .onFailure(e -> {
+                        ReconciliationMetrics.request(path, "error", System.nanoTime() - start, decoder.getBytes());
+                        promise.fail(e);
+                    })
+                    .onSuccess(res -> {
+                        int statusCode = res.statusCode();
+                        ReconciliationMetrics.request(path, String.valueOf(statusCode), System.nanoTime() - start, decoder.getBytes());
+                        if (statusCode != 200) {
+                            promise.fail("http status is not 200: " + statusCode + ", errorMsg: " + decoder.getHead());
+                        } else if (Objects.nonNull(decoder.getFailure())) {
+                            promise.fail(decoder.getFailure());
+                        } else if (decoder.getCode() != 0) {
+                            promise.fail("api code is not 0: " + decoder.getCode() + ", errorMsg: " + decoder.getMessage());
+                        } else {
+                            promise.complete(decoder.getRecords());
+                        }
+                    });
+        });
+
+        return promise.future();
+    }
+}
@@ -0,0 +1,31 @@
+package trades.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import trades.consistency.CandleBuffer;
+import trades.consistency.CheckReport;
+import trades.consistency.TradeBuffer;
+
+import java.util.Objects;
+
+/**
+ * Payloads of failed cases, written to the {@code trades.dump} logger (a rotating file in logback.xml) instead of
+ * the console. Passing cases never encode their payloads.
+ */
+public final class PayloadDump {
+    private final static Logger log = LoggerFactory.getLogger("trades.dump");
+
+    private PayloadDump() {
+    }
+
+    public static boolean isEnabled() {
+        return log.isInfoEnabled();
+    }
+
+    // encode the candles and trades of the failed case, call off the event loop
+    public static void failure(CheckReport report, CandleBuffer candles, TradeBuffer trades) {
+        if (!log.isInfoEnabled()) return;
+        log.info("{}({}) FAIL, {} mismatches\ncandles: {}\ntrades: {}", report.getInstrument(), report.getTimeframe(),
+                report.getMismatches().size(), candles.toJson().encode(), Objects.isNull(trades) ? null : trades.toJson().encode());
+    }
+}
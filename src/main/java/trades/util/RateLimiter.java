@@ -0,0 +1,68 @@
+package trades.util;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Token bucket of requests, {@code rate} per second in bursts of at most {@code burst}. Requests over the rate wait
+ * on a timer in arrival order, they are never rejected.
+ * <p>
+ * {@link HttpClient} takes a token from the limiter registered for the instrument of the request, the service
+ * registers one limiter for every instrument of the node. Requests of instruments without a limiter are not limited.
+ */
+public class RateLimiter {
+    private final static Map<Vertx, Map<String, RateLimiter>> limiters = new ConcurrentHashMap<>();
+
+    private final Vertx vertx;
+    private final double rate;
+    private final double burst;
+    // negative once requests wait for tokens
+    private double tokens;
+    private long refilledAt;
+
+    public RateLimiter(Vertx vertx, double rate, double burst) {
+        if (rate <= 0) throw new IllegalArgumentException("Rate must be positive: " + rate);
+        this.vertx = vertx;
+        this.rate = rate;
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.refilledAt = System.nanoTime();
+    }
+
+    // limit the requests of the instrument by the limiter
+    public static void register(Vertx vertx, String instrument, RateLimiter limiter) {
+        limiters.computeIfAbsent(vertx, v -> new ConcurrentHashMap<>()).put(instrument, limiter);
+    }
+
+    public static void close(Vertx vertx) {
+        limiters.remove(vertx);
+    }
+
+    // completes once the request of the instrument may be sent
+    public static Future<Void> acquire(Vertx vertx, String instrument) {
+        Map<String, RateLimiter> instruments = limiters.get(vertx);
+        RateLimiter limiter = Objects.isNull(instruments) || Objects.isNull(instrument) ? null : instruments.get(instrument);
+        return Objects.isNull(limiter) ? Future.succeededFuture() : limiter.acquire();
+    }
+
+    public Future<Void> acquire() {
+        long delay;
+        synchronized (this) {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - refilledAt) * rate / 1e9);
+            refilledAt = now;
+            tokens--;
+            if (tokens >= 0) return Future.succeededFuture();
+            // the token of this request is refilled after the ones of the requests already waiting
+            delay = Math.max(1, (long) Math.ceil(-tokens * 1000 / rate));
+        }
+        Promise<Void> promise = Promise.promise();
+        vertx.setTimer(delay, id -> promise.complete());
+        return promise.future();
+    }
+}
@@ -0,0 +1,161 @@
+package trades.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer meters of the reconciliation pipeline, recorded to the global registry:
+ * <ul>
+ *     <li>{@code reconciliation.http.requests}: latency histogram by endpoint path and status ("error" if no response)</li>
+ *     <li>{@code reconciliation.http.response.bytes}: response body size by endpoint path</li>
+ *     <li>{@code reconciliation.trades.ingested} and {@code reconciliation.trades.duplicates}: trades received and
+ *     dropped as duplicates by instrument</li>
+ *     <li>{@code reconciliation.trades.gaps}: trades possibly lost by instrument and market data source (rest, websocket)</li>
+ *     <li>{@code reconciliation.check}: checker time by instrument and timeframe</li>
+ *     <li>{@code reconciliation.candles} and {@code reconciliation.mismatches}: checked candles by instrument,
+ *     mismatches by instrument and field (open, close, high, low, volume)</li>
+ * </ul>
+ * Nothing is kept until {@link #init(Vertx, JsonObject)} adds a Prometheus registry with the "metrics" options of
+ * config.json. Its scrape is served at {@code /metrics} on {@code metrics.port} (0 for none) and written to
+ * {@code metrics.file} (if set) on {@link #close(Vertx)}.
+ */
+public final class ReconciliationMetrics {
+    private final static Logger log = LoggerFactory.getLogger(ReconciliationMetrics.class);
+
+    private final static Map<Vertx, ReconciliationMetrics> instances = new ConcurrentHashMap<>();
+    private final static String[] FIELDS = {"open", "close", "high", "low", "volume"};
+
+    private final PrometheusMeterRegistry registry;
+    private final String file;
+    private HttpServer server;
+
+    private ReconciliationMetrics(PrometheusMeterRegistry registry, String file) {
+        this.registry = registry;
+        this.file = file;
+    }
+
+    // add the Prometheus registry of the Vertx instance, completes once the endpoint listens
+    public static Future<Void> init(Vertx vertx, JsonObject config) {
+        JsonObject options = Objects.isNull(config) ? new JsonObject() : config.getJsonObject("metrics", new JsonObject());
+        if (!options.getBoolean("enabled", true)) return Future.succeededFuture();
+
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        ReconciliationMetrics metrics = new ReconciliationMetrics(registry, options.getString("file"));
+        ReconciliationMetrics previous = instances.put(vertx, metrics);
+        if (Objects.nonNull(previous)) previous.stop();
+        Metrics.addRegistry(registry);
+
+        int port = options.getInteger("port", 0);
+        if (port <= 0) return Future.succeededFuture();
+        return vertx.createHttpServer()
+                .requestHandler(req -> {
+                    if ("/metrics".equals(req.path())) {
+                        req.response().putHeader("content-type", "text/plain; version=0.0.4; charset=utf-8").end(registry.scrape());
+                    } else {
+                        req.response().setStatusCode(404).end();
+                    }
+                })
+                .listen(port)
+                .onSuccess(s -> {
+                    metrics.server = s;
+                    log.info("Metrics endpoint listening on port {}", s.actualPort());
+                })
+                .mapEmpty();
+    }
+
+    // write the scrape to the file of the options, then remove the registry, call before closing Vertx
+    public static void close(Vertx vertx) {
+        ReconciliationMetrics metrics = instances.remove(vertx);
+        if (Objects.isNull(metrics)) return;
+
+        if (Objects.nonNull(metrics.file)) {
+            try {
+                Path path = Paths.get(metrics.file);
+                if (Objects.nonNull(path.getParent())) Files.createDirectories(path.getParent());
+                Files.write(path, metrics.registry.scrape().getBytes(StandardCharsets.UTF_8));
+                log.info("Metrics written to {}", path);
+            } catch (IOException e) {
+                log.error("Metrics dump error: {}", metrics.file, e);
+            }
+        }
+        metrics.stop();
+    }
+
+    // Prometheus text format of the registry of the Vertx instance, null if there is none
+    public static String scrape(Vertx vertx) {
+        ReconciliationMetrics metrics = instances.get(vertx);
+        return Objects.isNull(metrics) ? null : metrics.registry.scrape();
+    }
+
+    public static void request(String endpoint, String status, long nanos, long bytes) {
+        MeterRegistry registry = Metrics.globalRegistry;
+        Timer.builder("reconciliation.http.requests")
+                .tag("endpoint", endpoint)
+                .tag("status", status)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("reconciliation.http.response.bytes")
+                .baseUnit("bytes")
+                .tag("endpoint", endpoint)
+                .register(registry)
+                .record(bytes);
+    }
+
+    public static void trades(String instrument, long ingested, long duplicates) {
+        Metrics.counter("reconciliation.trades.ingested", "instrument", instrument).increment(ingested);
+        Metrics.counter("reconciliation.trades.duplicates", "instrument", instrument).increment(duplicates);
+    }
+
+    public static void gap(String instrument, String source) {
+        Metrics.counter("reconciliation.trades.gaps", "instrument", instrument, "source", source).increment();
+    }
+
+    public static void check(String instrument, String timeframe, long nanos) {
+        Metrics.timer("reconciliation.check", "instrument", instrument, "timeframe", timeframe).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public static void candles(String instrument, int candles) {
+        Metrics.counter("reconciliation.candles", "instrument", instrument).increment(candles);
+    }
+
+    // count the mismatch of each field in the result of a failed candle
+    public static void mismatch(String instrument, String result) {
+        for (String field : FIELDS) {
+            if (result.contains(field + " doesn't match")) {
+                Counter.builder("reconciliation.mismatches")
+                        .tag("instrument", instrument)
+                        .tag("field", field)
+                        .register(Metrics.globalRegistry)
+                        .increment();
+            }
+        }
+    }
+
+    private void stop() {
+        Metrics.removeRegistry(registry);
+        registry.close();
+        if (Objects.nonNull(server)) server.close();
+    }
+}
@@ -0,0 +1,337 @@
+package trades.util;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import trades.consistency.CandleBuffer;
+import trades.consistency.Timeframe;
+import trades.consistency.TradeBuffer;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Cache in front of {@link HttpClient}, keyed by (endpoint, instrument_name, timeframe, depth).
+ * <p>
+ * Closed candles never change, so they are kept until evicted, the live ones only for {@code live_ttl}
+ * milliseconds. A candle counts as closed {@code closed_grace} milliseconds after its end, as the exchange may still
+ * fold late trades into it, so the latest two candles may be live. Once that expires, only the candles from the end of the last closed one are requested
+ * ({@code start_ts}) and merged in. The exchange returns the latest {@code depth} candles, or as many as the first
+ * response without {@code start_ts} if the request has no depth, so the oldest cached candles are dropped as the
+ * window moves on. A get-trades page is kept for {@code trades_ttl} milliseconds, 0 by default
+ * so that every poll sees new trades. Concurrent requests of the same cached key share one fetch. Entries are evicted
+ * least recently used first once their estimated size exceeds {@code max_bytes}.
+ * <p>
+ * Options are the {@code cache} section of config.json, one cache is shared per Vertx instance, and callers on
+ * another clock get a cache of their own with the same options.
+ */
+public class ResponseCache {
+    private final static Logger log = LoggerFactory.getLogger(ResponseCache.class);
+
+    private final static Map<Vertx, ResponseCache> caches = new ConcurrentHashMap<>();
+    // estimated heap size of one cached candle and trade, and of an entry
+    private final static long CANDLE_BYTES = 48, TRADE_BYTES = 32, ENTRY_BYTES = 256;
+
+    private static final class CandleEntry {
+        final Timeframe timeframe;
+        final int priceScale, quantityScale;
+        final CandleBuffer closed;
+        // candles the exchange returns for the request, 0 until known
+        int depth;
+        // candles still open, or closed within the grace time
+        final CandleBuffer live;
+        long fetchedAt = Long.MIN_VALUE;
+        Future<Void> fetching;
+
+        CandleEntry(Timeframe timeframe, int priceScale, int quantityScale) {
+            this.timeframe = timeframe;
+            this.priceScale = priceScale;
+            this.quantityScale = quantityScale;
+            this.closed = new CandleBuffer(16, priceScale, quantityScale);
+            this.live = new CandleBuffer(2, priceScale, quantityScale);
+        }
+    }
+
+    private static final class TradeEntry {
+        TradeBuffer page;
+        long fetchedAt = Long.MIN_VALUE;
+        Future<Void> fetching;
+    }
+
+    private final Vertx vertx;
+    private final JsonObject options;
+    private final boolean enabled;
+    private final long liveTtl;
+    private final long tradesTtl;
+    private final long closedGrace;
+    private final long maxBytes;
+    private final LongSupplier clock;
+    // access ordered, the eldest entry is the least recently used
+    private final LinkedHashMap<String, Object> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+
+    public ResponseCache(Vertx vertx, JsonObject options, LongSupplier clock) {
+        if (Objects.isNull(options)) options = new JsonObject();
+        this.vertx = vertx;
+        this.options = options;
+        this.enabled = options.getBoolean("enabled", true);
+        this.liveTtl = options.getLong("live_ttl", 1000L);
+        this.tradesTtl = options.getLong("trades_ttl", 0L);
+        this.closedGrace = options.getLong("closed_grace", 5000L);
+        this.maxBytes = options.getLong("max_bytes", 64L << 20);
+        this.clock = clock;
+    }
+
+    // create the shared cache of the Vertx instance with the "cache" options of config.json
+    public static ResponseCache init(Vertx vertx, JsonObject config) {
+        return init(vertx, config, System::currentTimeMillis);
+    }
+
+    // same, with the time candles are closed and entries expire at
+    public static ResponseCache init(Vertx vertx, JsonObject config, LongSupplier clock) {
+        JsonObject options = Objects.isNull(config) ? null : config.getJsonObject("cache");
+        ResponseCache cache = new ResponseCache(vertx, options, clock);
+        caches.put(vertx, cache);
+        return cache;
+    }
+
+    public static void close(Vertx vertx) {
+        caches.remove(vertx);
+    }
+
+    public static ResponseCache cache(Vertx vertx) {
+        return caches.computeIfAbsent(vertx, v -> new ResponseCache(v, null, System::currentTimeMillis));
+    }
+
+    // the shared cache if it runs on the clock, otherwise a new cache on the clock with the options of the shared one
+    public static ResponseCache cache(Vertx vertx, LongSupplier clock) {
+        ResponseCache shared = cache(vertx);
+        return shared.clock == clock ? shared : new ResponseCache(vertx, shared.options, clock);
+    }
+
+    // candles of the request copied into the buffer, completes with the number of candles
+    public Future<Integer> getCandleStick(Map<String, JsonObject> apiInfo, Map<String, String> parameters, CandleBuffer candles) {
+        String timeframe = parameters.get("timeframe");
+        if (!enabled || Objects.isNull(timeframe)) return HttpClient.getCandleStick(vertx, apiInfo, parameters, candles);
+
+        String key = key(apiInfo.get("getCandleStick"), parameters);
+        CandleEntry entry;
+        Future<Void> fetch;
+        synchronized (this) {
+            Object cached = entries.get(key);
+            if (cached instanceof CandleEntry && ((CandleEntry) cached).priceScale == candles.priceScale()
+                    && ((CandleEntry) cached).quantityScale == candles.quantityScale()) {
+                entry = (CandleEntry) cached;
+            } else {
+                remove(key);
+                entry = new CandleEntry(Timeframe.of(timeframe), candles.priceScale(), candles.quantityScale());
+                if (parameters.containsKey("depth")) entry.depth = Integer.parseInt(parameters.get("depth"));
+                entries.put(key, entry);
+                bytes += ENTRY_BYTES;
+            }
+
+            if (Objects.nonNull(entry.fetching)) {
+                fetch = entry.fetching;
+            } else if (fresh(entry.fetchedAt, liveTtl)) {
+                hits++;
+                return Future.succeededFuture(copy(entry, candles));
+            } else {
+                misses++;
+                fetch = fetchCandles(key, entry, apiInfo, parameters);
+            }
+        }
+        return fetch.map(v -> {
+            synchronized (this) {
+                return copy(entry, candles);
+            }
+        });
+    }
+
+    // trades of the request added to the buffer, completes with the number of trades in the response
+    public Future<Integer> getTrades(Map<String, JsonObject> apiInfo, Map<String, String> parameters, TradeBuffer trades) {
+        if (!enabled || tradesTtl <= 0) return HttpClient.getTrades(vertx, apiInfo, parameters, trades);
+
+        String key = key(apiInfo.get("getTrades"), parameters);
+        TradeEntry entry;
+        Future<Void> fetch;
+        synchronized (this) {
+            Object cached = entries.get(key);
+            if (cached instanceof TradeEntry) {
+                entry = (TradeEntry) cached;
+            } else {
+                remove(key);
+                entry = new TradeEntry();
+                entries.put(key, entry);
+                bytes += ENTRY_BYTES;
+            }
+
+            boolean sameScale = Objects.nonNull(entry.page) && entry.page.priceScale() == trades.priceScale()
+                    && entry.page.quantityScale() == trades.quantityScale();
+            if (Objects.nonNull(entry.fetching)) {
+                fetch = entry.fetching;
+            } else if (sameScale && fresh(entry.fetchedAt, tradesTtl)) {
+                hits++;
+                return Future.succeededFuture(copy(entry.page, trades));
+            } else {
+                misses++;
+                fetch = fetchTrades(key, entry, apiInfo, parameters, trades.priceScale(), trades.quantityScale());
+            }
+        }
+        return fetch.compose(v -> {
+            synchronized (this) {
+                // a page shared with a request of another scale is fetched again
+                if (entry.page.priceScale() != trades.priceScale() || entry.page.quantityScale() != trades.quantityScale()) {
+                    return HttpClient.getTrades(vertx, apiInfo, parameters, trades);
+                }
+                return Future.succeededFuture(copy(entry.page, trades));
+            }
+        });
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    // estimated heap size of the cached responses
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private boolean fresh(long fetchedAt, long ttl) {
+        return fetchedAt != Long.MIN_VALUE && clock.getAsLong() - fetchedAt < ttl;
+    }
+
+    private Future<Void> fetchCandles(String key, CandleEntry entry, Map<String, JsonObject> apiInfo, Map<String, String> parameters) {
+        Map<String, String> request = new HashMap<>(parameters);
+        boolean full = entry.closed.size() == 0;
+        if (!full) {
+            request.put("start_ts", String.valueOf(entry.timeframe.end(entry.closed.timestamp(entry.closed.size() - 1))));
+        }
+
+        CandleBuffer fetched = new CandleBuffer(16, entry.priceScale, entry.quantityScale);
+        Promise<Void> promise = Promise.promise();
+        // set before sending, a response that is already there completes the fetch on this thread
+        entry.fetching = promise.future();
+        HttpClient.getCandleStick(vertx, apiInfo, request, fetched).onComplete(ar -> {
+            synchronized (this) {
+                entry.fetching = null;
+                if (ar.succeeded()) {
+                    long before = entry.closed.size();
+                    if (full && entry.depth == 0) entry.depth = fetched.size();
+                    merge(entry, fetched, clock.getAsLong());
+                    bytes += (entry.closed.size() - before) * CANDLE_BYTES;
+                    evict(key);
+                }
+            }
+            if (ar.succeeded()) promise.complete();
+            else promise.fail(ar.cause());
+        });
+        return promise.future();
+    }
+
+    private Future<Void> fetchTrades(String key, TradeEntry entry, Map<String, JsonObject> apiInfo, Map<String, String> parameters,
+                                     int priceScale, int quantityScale) {
+        TradeBuffer page = new TradeBuffer(256, priceScale, quantityScale);
+        Promise<Void> promise = Promise.promise();
+        entry.fetching = promise.future();
+        HttpClient.getTrades(vertx, apiInfo, parameters, page).onComplete(ar -> {
+            synchronized (this) {
+                entry.fetching = null;
+                if (ar.succeeded()) {
+                    bytes += (page.size() - (Objects.isNull(entry.page) ? 0 : entry.page.size())) * TRADE_BYTES;
+                    entry.page = page;
+                    entry.fetchedAt = clock.getAsLong();
+                    evict(key);
+                }
+            }
+            if (ar.succeeded()) promise.complete();
+            else promise.fail(ar.cause());
+        });
+        return promise.future();
+    }
+
+    // append the candles after the last closed one, those not closed at the time are the live candles
+    private void merge(CandleEntry entry, CandleBuffer fetched, long now) {
+        Integer[] order = new Integer[fetched.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(fetched.timestamp(a), fetched.timestamp(b)));
+
+        long lastClosed = entry.closed.size() > 0 ? entry.closed.timestamp(entry.closed.size() - 1) : Long.MIN_VALUE;
+        entry.live.clear();
+        for (int i : order) {
+            long start = fetched.timestamp(i);
+            if (start <= lastClosed) continue;
+            if (entry.timeframe.end(start) + closedGrace <= now) {
+                entry.closed.add(start, fetched.open(i), fetched.close(i), fetched.high(i), fetched.low(i), fetched.volume(i));
+                lastClosed = start;
+            } else {
+                entry.live.add(start, fetched.open(i), fetched.close(i), fetched.high(i), fetched.low(i), fetched.volume(i));
+            }
+        }
+        // the candles before the window of the exchange are not returned any more
+        int outside = entry.closed.size() + entry.live.size() - entry.depth;
+        if (entry.depth > 0 && outside > 0) entry.closed.removeFirst(outside);
+        entry.fetchedAt = now;
+    }
+
+    private static int copy(CandleEntry entry, CandleBuffer candles) {
+        for (CandleBuffer cached : new CandleBuffer[]{entry.closed, entry.live}) {
+            for (int i = 0; i < cached.size(); i++) {
+                candles.add(cached.timestamp(i), cached.open(i), cached.close(i), cached.high(i), cached.low(i), cached.volume(i));
+            }
+        }
+        return entry.closed.size() + entry.live.size();
+    }
+
+    private static int copy(TradeBuffer page, TradeBuffer trades) {
+        for (int i = 0; i < page.size(); i++) trades.add(page.id(i), page.timestamp(i), page.price(i), page.quantity(i));
+        return page.size();
+    }
+
+    private static String key(JsonObject api, Map<String, String> parameters) {
+        return api.getString("domain") + ":" + api.getInteger("port", 80) + api.getString("path")
+                + "|" + parameters.get("instrument_name") + "|" + parameters.getOrDefault("timeframe", "")
+                + "|" + parameters.getOrDefault("depth", "");
+    }
+
+    // drop least recently used entries, never the one just filled
+    private void evict(String keep) {
+        Iterator<Map.Entry<String, Object>> iterator = entries.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Object> eldest = iterator.next();
+            if (eldest.getKey().equals(keep) || fetching(eldest.getValue())) continue;
+            iterator.remove();
+            bytes -= sizeOf(eldest.getValue());
+            log.debug("Evicted cached response: {}", eldest.getKey());
+        }
+    }
+
+    private void remove(String key) {
+        Object removed = entries.remove(key);
+        if (Objects.nonNull(removed)) bytes -= sizeOf(removed);
+    }
+
+    private static boolean fetching(Object entry) {
+        return entry instanceof CandleEntry ? Objects.nonNull(((CandleEntry) entry).fetching) : Objects.nonNull(((TradeEntry) entry).fetching);
+    }
+
+    private static long sizeOf(Object entry) {
+        if (entry instanceof CandleEntry) return ENTRY_BYTES + ((CandleEntry) entry).closed.size() * CANDLE_BYTES;
+        TradeBuffer page = ((TradeEntry) entry).page;
+        return ENTRY_BYTES + (Objects.isNull(page) ? 0 : page.size() * TRADE_BYTES);
+    }
+}
@@ -0,0 +1,192 @@
+package trades.testCase.archive;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import trades.archive.TradeArchive;
+import trades.consistency.CandleBuffer;
+import trades.consistency.CheckReport;
+import trades.consistency.ConsistencyChecker;
+import trades.consistency.TradeBuffer;
+import trades.consistency.TradeSeries;
+import trades.stub.MarketDataGenerator;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TradeArchiveTest {
+    private final static long START = 1_650_000_000_000L;
+    private final static long DURATION = 36 * 3_600_000L;
+
+    @TempDir
+    Path directory;
+
+    private static MarketDataGenerator generator() {
+        return new MarketDataGenerator(new JsonObject()
+                .put("seed", 11)
+                .put("instruments", new JsonArray().add("BTC_USDT"))
+                .put("trades_per_second", 0.2)
+                .put("start", START)
+                .put("duration", DURATION)
+                .put("price_decimals", 8)
+                .put("quantity_decimals", 8));
+    }
+
+    // the trades of the buffer with timestamp in (from, to]
+    private static void assertReplayed(TradeBuffer trades, long from, long to, TradeSeries replayed) {
+        int first = trades.firstAfter(from), last = trades.firstAfter(to);
+        assertEquals(last - first, replayed.size());
+        for (int i = first; i < last; i++) {
+            int j = i - first;
+            assertEquals(trades.id(i), replayed.id(j));
+            assertEquals(trades.timestamp(i), replayed.timestamp(j));
+            assertEquals(trades.price(i), replayed.price(j));
+            assertEquals(trades.quantity(i), replayed.quantity(j));
+        }
+        // backwards, across the segments
+        for (int i = last - 1; i >= first; i -= 97) assertEquals(trades.id(i), replayed.id(i - first));
+    }
+
+    @Test
+    public void appendedTradesAreReplayedByWindow() {
+        MarketDataGenerator generator = generator();
+        TradeBuffer trades = generator.getTrades("BTC_USDT");
+        trades.sort();
+
+        try (TradeArchive archive = new TradeArchive(directory, 64)) {
+            assertEquals(trades.size(), archive.append("BTC_USDT", trades));
+            // overlapping collections append nothing twice
+            assertEquals(0, archive.append("BTC_USDT", trades));
+            assertEquals(2, archive.days("BTC_USDT").length);
+
+            assertReplayed(trades, START - 1, START + DURATION, archive.replay("BTC_USDT", START - 1, START + DURATION));
+            // windows across the day boundary and on trade timestamps
+            assertReplayed(trades, START + 3_600_000L, START + 30 * 3_600_000L, archive.replay("BTC_USDT", START + 3_600_000L, START + 30 * 3_600_000L));
+            assertReplayed(trades, trades.timestamp(100), trades.timestamp(5000), archive.replay("BTC_USDT", trades.timestamp(100), trades.timestamp(5000)));
+            assertEquals(0, archive.replay("BTC_USDT", START - 10_000, START - 1).size());
+            assertEquals(0, archive.replay("ETH_CRO", START, START + DURATION).size());
+
+            TradeSeries replayed = archive.replay("BTC_USDT", START - 1, START + DURATION);
+            assertEquals(trades.firstAfter(START + 7_200_000L), replayed.firstAfter(START + 7_200_000L));
+        }
+    }
+
+    @Test
+    public void replayIsCheckedLikeCollectedTrades() {
+        MarketDataGenerator generator = generator();
+        CandleBuffer candles = generator.getCandles("BTC_USDT", "1h");
+        try (TradeArchive archive = new TradeArchive(directory, 64)) {
+            archive.append("BTC_USDT", generator.getTrades("BTC_USDT"));
+
+            long from = candles.timestamp(0), to = candles.timestamp(candles.size() - 1) + 3_600_000L;
+            TradeSeries replayed = archive.replay("BTC_USDT", from, to);
+            CheckReport report = ConsistencyChecker.check("BTC_USDT", "1h", candles, replayed);
+            assertTrue(report.isPass(), report.getMismatches().toString());
+            assertEquals(candles.size(), report.getCandles());
+
+            ForkJoinPool pool = new ForkJoinPool(2);
+            try {
+                assertTrue(ConsistencyChecker.checkParallel("BTC_USDT", "1h", candles, replayed, pool).isPass());
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void reopenedArchiveContinuesSegments() throws Exception {
+        TradeBuffer trades = generator().getTrades("BTC_USDT");
+        trades.sort();
+        int half = trades.size() / 2;
+        TradeBuffer first = new TradeBuffer(half, trades.priceScale(), trades.quantityScale());
+        for (int i = 0; i < half; i++) first.add(trades.id(i), trades.timestamp(i), trades.price(i), trades.quantity(i));
+
+        try (TradeArchive archive = new TradeArchive(directory, 64)) {
+            assertEquals(half, archive.append("BTC_USDT", first));
+        }
+
+        // a lost index is rebuilt from the records
+        List<Path> indexes;
+        try (Stream<Path> files = Files.walk(directory)) {
+            indexes = files.filter(path -> path.toString().endsWith(".idx")).collect(Collectors.toList());
+        }
+        assertFalse(indexes.isEmpty());
+        for (Path index : indexes) Files.delete(index);
+
+        try (TradeArchive archive = new TradeArchive(directory, 64)) {
+            assertEquals(trades.size() - half, archive.append("BTC_USDT", trades));
+            assertReplayed(trades, START - 1, START + DURATION, archive.replay("BTC_USDT", START - 1, START + DURATION));
+        }
+    }
+
+    @Test
+    public void outOfOrderTradesAreMergedIntoPlace() {
+        TradeBuffer trades = generator().getTrades("BTC_USDT");
+        trades.sort();
+        TradeBuffer even = new TradeBuffer(trades.size(), trades.priceScale(), trades.quantityScale());
+        TradeBuffer odd = new TradeBuffer(trades.size(), trades.priceScale(), trades.quantityScale());
+        for (int i = 0; i < trades.size(); i++) {
+            (i % 2 == 0 ? even : odd).add(trades.id(i), trades.timestamp(i), trades.price(i), trades.quantity(i));
+        }
+
+        try (TradeArchive archive = new TradeArchive(directory, 64)) {
+            assertEquals(even.size(), archive.append("BTC_USDT", even));
+            // every other trade arrives late, older than the last archived one of its day
+            assertEquals(odd.size(), archive.append("BTC_USDT", odd));
+            assertEquals(0, archive.append("BTC_USDT", trades));
+
+            // the index is rebuilt for the rewritten records
+            assertReplayed(trades, START - 1, START + DURATION, archive.replay("BTC_USDT", START - 1, START + DURATION));
+            assertReplayed(trades, trades.timestamp(99), trades.timestamp(4999), archive.replay("BTC_USDT", trades.timestamp(99), trades.timestamp(4999)));
+        }
+
+        // and survives reopening
+        try (TradeArchive archive = new TradeArchive(directory, 64)) {
+            assertEquals(0, archive.append("BTC_USDT", trades));
+            assertReplayed(trades, START - 1, START + DURATION, archive.replay("BTC_USDT", START - 1, START + DURATION));
+        }
+    }
+
+    @Test
+    public void segmentsAreClosedOnceTheirDayIsOver() {
+        MarketDataGenerator generator = new MarketDataGenerator(new JsonObject()
+                .put("seed", 11)
+                .put("instruments", 3)
+                .put("trades_per_second", 0.05)
+                .put("start", START)
+                .put("duration", DURATION)
+                .put("price_decimals", 8)
+                .put("quantity_decimals", 8));
+
+        try (TradeArchive archive = new TradeArchive(directory, 64, 2)) {
+            // the first day of the instrument is closed when the second is appended
+            TradeBuffer trades = generator.getTrades("SYN000_USDT");
+            archive.append("SYN000_USDT", trades);
+            assertEquals(2, archive.days("SYN000_USDT").length);
+            assertEquals(1, archive.getOpenSegments());
+
+            // the least recently used segment is closed beyond the limit
+            long nextDay = (Math.floorDiv(START, 86_400_000L) + 1) * 86_400_000L;
+            for (String instrument : generator.getInstruments()) {
+                TradeBuffer all = generator.getTrades(instrument), firstDay = new TradeBuffer(all.size(), all.priceScale(), all.quantityScale());
+                for (int i = 0; i < all.size(); i++) {
+                    if (all.timestamp(i) < nextDay) firstDay.add(all.id(i), all.timestamp(i), all.price(i), all.quantity(i));
+                }
+                archive.append(instrument, firstDay);
+            }
+            assertEquals(2, archive.getOpenSegments());
+
+            // closed segments are reopened for older trades, those already archived are skipped
+            trades.sort();
+            assertEquals(0, archive.append("SYN000_USDT", trades));
+            assertReplayed(trades, START - 1, START + DURATION, archive.replay("SYN000_USDT", START - 1, START + DURATION));
+        }
+    }
+}
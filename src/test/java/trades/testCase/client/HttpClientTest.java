@@ -0,0 +1,117 @@
+package trades.testCase.client;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.WebClient;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import trades.consistency.TradeBuffer;
+import trades.util.HttpClient;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HttpClientTest {
+    private final static Logger log = LoggerFactory.getLogger(HttpClientTest.class);
+    private final static int REQUESTS = 40;
+
+    private static Vertx vertx;
+    private static HttpServer server;
+    private static Map<String, JsonObject> apiInfo;
+    private final static AtomicInteger connections = new AtomicInteger();
+
+    @BeforeAll
+    static void setup() throws Exception {
+        vertx = Vertx.vertx();
+
+        // local stub of get-trades, counts the TCP connections opened by the clients
+        String body = "{\"code\":0,\"result\":{\"data\":[{\"d\":1,\"t\":1000,\"p\":1.5,\"q\":2}]}}";
+        server = vertx.createHttpServer()
+                .connectionHandler(connection -> connections.incrementAndGet())
+                .requestHandler(req -> {
+                    if ("BAD".equals(req.getParam("instrument_name"))) {
+                        req.response().setStatusCode(429).end("Too many requests, retry after 1s");
+                    } else {
+                        req.response().putHeader("content-type", "application/json").end(body);
+                    }
+                })
+                .listen(0, "localhost")
+                .toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+
+        apiInfo = new HashMap<>();
+        apiInfo.put("getTrades", new JsonObject()
+                .put("domain", "localhost")
+                .put("port", server.actualPort())
+                .put("path", "/v2/public/get-trades"));
+        HttpClient.init(vertx, new JsonObject().put("client", new JsonObject().put("max_pool_size", 4)));
+    }
+
+    @AfterAll
+    public static void done() {
+        HttpClient.close(vertx);
+        vertx.close();
+    }
+
+    @Test
+    public void errorResponsesKeepTheirBody() throws Exception {
+        Future<Integer> result = HttpClient.getTrades(vertx, apiInfo, Collections.singletonMap("instrument_name", "BAD"), new TradeBuffer());
+        Throwable failure = assertThrows(Exception.class,
+                () -> result.toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS)).getCause();
+        assertEquals("http status is not 200: 429, errorMsg: Too many requests, retry after 1s", failure.getMessage());
+    }
+
+    @Test
+    public void sharedClientReusesPooledConnections() throws Exception {
+        // warm up both paths before measuring
+        TradeBuffer trades = new TradeBuffer();
+        CompositeFuture.all(
+                HttpClient.getTrades(vertx, apiInfo, Collections.singletonMap("instrument_name", "BTC_USDT"), trades),
+                sendWithNewClient()
+        ).toCompletionStage().toCompletableFuture().get(30, TimeUnit.SECONDS);
+
+        // current path: one pooled client for every request
+        connections.set(0);
+        long start = System.nanoTime();
+        List<Future<?>> requests = new ArrayList<>();
+        for (int i = 0; i < REQUESTS; i++) {
+            requests.add(HttpClient.getTrades(vertx, apiInfo, Collections.singletonMap("instrument_name", "BTC_USDT"), trades));
+        }
+        CompositeFuture.all(new ArrayList<>(requests)).toCompletionStage().toCompletableFuture().get(30, TimeUnit.SECONDS);
+        long sharedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        int sharedConnections = connections.get();
+
+        // previous path: a new client, and so a new connection, per request
+        connections.set(0);
+        start = System.nanoTime();
+        requests.clear();
+        for (int i = 0; i < REQUESTS; i++) {
+            requests.add(sendWithNewClient());
+        }
+        CompositeFuture.all(new ArrayList<>(requests)).toCompletionStage().toCompletableFuture().get(30, TimeUnit.SECONDS);
+        long perRequestMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        int perRequestConnections = connections.get();
+
+        log.info("{} requests, shared client: {} ms, {} connections, client per request: {} ms, {} connections",
+                REQUESTS, sharedMillis, sharedConnections, perRequestMillis, perRequestConnections);
+
+        assertEquals(1, trades.size());
+        assertTrue(sharedConnections <= 4, "connections: " + sharedConnections);
+        assertEquals(REQUESTS, perRequestConnections);
+    }
+
+    // a get-trades request of its own client, closed once the response has arrived
+    private static Future<?> sendWithNewClient() {
+        WebClient client = WebClient.create(vertx);
+        return client.get(server.actualPort(), "localhost", "/v2/public/get-trades").send()
+                .onComplete(ar -> client.close());
+    }
+}
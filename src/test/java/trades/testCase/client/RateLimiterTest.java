@@ -0,0 +1,49 @@
+package trades.testCase.client;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import trades.util.RateLimiter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RateLimiterTest {
+    private static Vertx vertx;
+
+    @BeforeAll
+    static void setup() {
+        vertx = Vertx.vertx();
+    }
+
+    @AfterAll
+    public static void done() {
+        RateLimiter.close(vertx);
+        vertx.close();
+    }
+
+    @Test
+    public void requestsOverTheRateWait() throws Exception {
+        RateLimiter.register(vertx, "BTC_USDT", new RateLimiter(vertx, 100, 5));
+
+        long start = System.nanoTime();
+        List<Future<Void>> requests = new ArrayList<>();
+        for (int i = 0; i < 25; i++) requests.add(RateLimiter.acquire(vertx, "BTC_USDT"));
+        // the burst is sent at once
+        for (int i = 0; i < 5; i++) assertTrue(requests.get(i).isComplete());
+        assertFalse(requests.get(5).isComplete());
+
+        CompositeFuture.all(new ArrayList<>(requests)).toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsed >= 190, elapsed + " ms");
+
+        // other instruments are not limited
+        assertTrue(RateLimiter.acquire(vertx, "ETH_CRO").isComplete());
+    }
+}
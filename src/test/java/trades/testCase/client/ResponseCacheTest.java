@@ -0,0 +1,171 @@
+package trades.testCase.client;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import trades.consistency.CandleBuffer;
+import trades.consistency.InstrumentScale;
+import trades.util.HttpClient;
+import trades.util.ResponseCache;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResponseCacheTest {
+    private static Vertx vertx;
+    private static Map<String, JsonObject> apiInfo;
+    // start_ts of every get-candlestick request, "" if none
+    private final static List<String> requests = new CopyOnWriteArrayList<>();
+    private final static AtomicLong now = new AtomicLong();
+
+    @BeforeAll
+    static void setup() throws Exception {
+        vertx = Vertx.vertx();
+
+        // local stub of get-candlestick with the latest depth (3 by default) 1m candles started by now, honours start_ts
+        HttpServer server = vertx.createHttpServer()
+                .requestHandler(req -> {
+                    String startTs = req.getParam("start_ts", "");
+                    requests.add(startTs);
+                    long from = startTs.isEmpty() ? Long.MIN_VALUE : Long.parseLong(startTs);
+                    long latest = (now.get() - 1) / 60_000 * 60_000;
+                    long first = Math.max(0, latest - (Integer.parseInt(req.getParam("depth", "3")) - 1) * 60_000L);
+                    StringJoiner data = new StringJoiner(",");
+                    for (long t = first; t <= latest; t += 60_000) {
+                        if (t >= from) data.add("{\"t\":" + t + ",\"o\":1,\"c\":2,\"h\":3,\"l\":1,\"v\":" + (t / 60_000 + 1) + "}");
+                    }
+                    req.response().end("{\"code\":0,\"result\":{\"data\":[" + data + "]}}");
+                })
+                .listen(0, "localhost")
+                .toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+
+        apiInfo = new HashMap<>();
+        apiInfo.put("getCandleStick", new JsonObject().put("domain", "localhost").put("port", server.actualPort()).put("path", "/v2/public/get-candlestick"));
+        HttpClient.init(vertx, null);
+    }
+
+    @AfterAll
+    public static void done() {
+        HttpClient.close(vertx);
+        vertx.close();
+    }
+
+    @BeforeEach
+    void reset() {
+        requests.clear();
+        now.set(150_000);
+    }
+
+    @Test
+    public void closedCandlesAreFetchedOnce() throws Exception {
+        ResponseCache cache = new ResponseCache(vertx, new JsonObject().put("live_ttl", 1000), now::get);
+
+        assertEquals(3, get(cache, "BTC_USDT").size());
+        // within the ttl of the live candle
+        now.addAndGet(500);
+        CandleBuffer candles = get(cache, "BTC_USDT");
+        assertEquals(3, candles.size());
+        assertEquals(Collections.singletonList(""), requests);
+        assertEquals(1, cache.getHits());
+
+        // only the live candle is fetched again
+        now.addAndGet(1000);
+        candles = get(cache, "BTC_USDT");
+        assertEquals(Arrays.asList("", "120000"), requests);
+        assertEquals(Arrays.asList(0L, 60_000L, 120_000L),
+                Arrays.asList(candles.timestamp(0), candles.timestamp(1), candles.timestamp(2)));
+
+        // concurrent requests share one fetch
+        now.addAndGet(1000);
+        List<Future<Integer>> concurrent = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            concurrent.add(cache.getCandleStick(apiInfo, parameters("BTC_USDT"), new CandleBuffer(InstrumentScale.DEFAULT)));
+        }
+        CompositeFuture.all(new ArrayList<>(concurrent)).toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        assertEquals(3, requests.size());
+        for (Future<Integer> count : concurrent) assertEquals(3, count.result());
+    }
+
+    @Test
+    public void candlesCloseAfterTheGraceTime() throws Exception {
+        now.set(122_000);
+        ResponseCache cache = new ResponseCache(vertx, new JsonObject().put("live_ttl", 1000).put("closed_grace", 5000), now::get);
+        assertEquals(3, get(cache, "BTC_USDT").size());
+
+        // the candle ended at 120000 may still change until 125000, it is fetched again with the open one
+        now.set(124_000);
+        assertEquals(3, get(cache, "BTC_USDT").size());
+        now.set(126_000);
+        assertEquals(3, get(cache, "BTC_USDT").size());
+        now.set(128_000);
+        CandleBuffer candles = get(cache, "BTC_USDT");
+        assertEquals(Arrays.asList("", "60000", "60000", "120000"), requests);
+        assertEquals(Arrays.asList(0L, 60_000L, 120_000L),
+                Arrays.asList(candles.timestamp(0), candles.timestamp(1), candles.timestamp(2)));
+    }
+
+    @Test
+    public void candlesLeavingTheWindowAreDropped() throws Exception {
+        ResponseCache cache = new ResponseCache(vertx, new JsonObject().put("live_ttl", 1000), now::get);
+        assertEquals(3, get(cache, "BTC_USDT").size());
+        long bytes = cache.getBytes();
+
+        // the window learned from the first response moves on, three candles later
+        now.set(330_000);
+        CandleBuffer candles = get(cache, "BTC_USDT");
+        assertEquals(Arrays.asList(180_000L, 240_000L, 300_000L),
+                Arrays.asList(candles.timestamp(0), candles.timestamp(1), candles.timestamp(2)));
+        assertEquals(3, candles.size());
+        assertEquals(bytes, cache.getBytes());
+
+        // the depth of the request, cached apart
+        Map<String, String> parameters = parameters("BTC_USDT");
+        parameters.put("depth", "2");
+        candles = new CandleBuffer(InstrumentScale.DEFAULT);
+        cache.getCandleStick(apiInfo, parameters, candles).toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        now.set(400_000);
+        candles = new CandleBuffer(InstrumentScale.DEFAULT);
+        cache.getCandleStick(apiInfo, parameters, candles).toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList(300_000L, 360_000L), Arrays.asList(candles.timestamp(0), candles.timestamp(1)));
+        assertEquals(2, candles.size());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvicted() throws Exception {
+        // room for about one entry of two closed candles
+        ResponseCache cache = new ResponseCache(vertx, new JsonObject().put("max_bytes", 400), now::get);
+
+        get(cache, "BTC_USDT");
+        get(cache, "ETH_CRO");
+        assertEquals(1, cache.size());
+        assertTrue(cache.getBytes() <= 400);
+
+        // the evicted instrument is fetched again
+        get(cache, "BTC_USDT");
+        assertEquals(Arrays.asList("", "", ""), requests);
+    }
+
+    private static Map<String, String> parameters(String instrument) {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("instrument_name", instrument);
+        parameters.put("timeframe", "1m");
+        return parameters;
+    }
+
+    private static CandleBuffer get(ResponseCache cache, String instrument) throws Exception {
+        CandleBuffer candles = new CandleBuffer(InstrumentScale.DEFAULT);
+        cache.getCandleStick(apiInfo, parameters(instrument), candles).toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        return candles;
+    }
+}
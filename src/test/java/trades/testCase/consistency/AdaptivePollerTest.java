@@ -0,0 +1,91 @@
+package trades.testCase.consistency;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import trades.consistency.AdaptivePoller;
+import trades.consistency.InstrumentScale;
+import trades.util.HttpClient;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdaptivePollerTest {
+    private static Vertx vertx;
+    private static Map<String, JsonObject> apiInfo;
+    private final static AtomicInteger page = new AtomicInteger();
+
+    // consecutive get-trades pages: a gap between the first two, then the same page again
+    private final static List<String> PAGES = Arrays.asList(
+            "[{\"d\":2,\"t\":2000,\"p\":1,\"q\":1},{\"d\":1,\"t\":1000,\"p\":1,\"q\":1}]",
+            "[{\"d\":6,\"t\":6000,\"p\":1,\"q\":1},{\"d\":5,\"t\":5000,\"p\":1,\"q\":1}]",
+            "[{\"d\":6,\"t\":6000,\"p\":1,\"q\":1},{\"d\":5,\"t\":5000,\"p\":1,\"q\":1}]",
+            "[{\"d\":9,\"t\":9000,\"p\":1,\"q\":1},{\"d\":8,\"t\":8000,\"p\":1,\"q\":1},{\"d\":7,\"t\":7000,\"p\":1,\"q\":1},"
+                    + "{\"d\":6,\"t\":6000,\"p\":1,\"q\":1}]");
+
+    @BeforeAll
+    static void setup() throws Exception {
+        vertx = Vertx.vertx();
+        HttpServer server = vertx.createHttpServer()
+                .requestHandler(req -> req.response().end("{\"code\":0,\"result\":{\"data\":"
+                        + PAGES.get(Math.min(page.getAndIncrement(), PAGES.size() - 1)) + "}}"))
+                .listen(0, "localhost")
+                .toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+
+        apiInfo = new HashMap<>();
+        apiInfo.put("getTrades", new JsonObject().put("domain", "localhost").put("port", server.actualPort()).put("path", "/v2/public/get-trades"));
+        HttpClient.init(vertx, null);
+    }
+
+    @AfterAll
+    public static void done() {
+        HttpClient.close(vertx);
+        vertx.close();
+    }
+
+    // the suites run the class again in the same JVM, serve the pages from the first one
+    @BeforeEach
+    void reset() {
+        page.set(0);
+    }
+
+    @Test
+    public void intervalFollowsPageOverlap() throws Exception {
+        JsonObject options = new JsonObject().put("interval", 1000).put("min_interval", 100).put("max_interval", 4000);
+        List<Long> ids = new ArrayList<>();
+        AdaptivePoller poller = new AdaptivePoller(vertx, apiInfo, "BTC_USDT", InstrumentScale.DEFAULT, options)
+                .handler(trade -> ids.add(trade[0]));
+
+        poll(poller);
+        assertEquals(1000, poller.getInterval());
+
+        // no trade in common and every trade newer: a gap, poll faster
+        poll(poller);
+        assertEquals(1, poller.getGapCount());
+        assertEquals(500, poller.getInterval());
+
+        // the same page again: poll slower
+        poll(poller);
+        assertEquals(1, poller.getGapCount());
+        assertEquals(750, poller.getInterval());
+
+        // one of four trades seen before: between the overlap bounds, keep the interval
+        poll(poller);
+        assertEquals(750, poller.getInterval());
+
+        assertEquals(4, poller.getRequests());
+        assertTrue(poller.getRequestRate() > 0);
+        assertEquals(Arrays.asList(2L, 1L, 6L, 5L, 6L, 5L, 9L, 8L, 7L, 6L), ids);
+    }
+
+    private static void poll(AdaptivePoller poller) throws Exception {
+        poller.poll().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,324 @@
+package trades.testCase.consistency;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import trades.consistency.CandleAggregator;
+import trades.consistency.CandleBuffer;
+import trades.consistency.CheckReport;
+import trades.consistency.ConsistencyChecker;
+import trades.consistency.JsonRecordDecoder;
+import trades.consistency.Ohlcv;
+import trades.consistency.Timeframe;
+import trades.consistency.TradeBuffer;
+import trades.stub.MarketDataGenerator;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConsistencyCheckerTest {
+    private static JsonObject trade(long id, long timestamp, double price, double quantity) {
+        return new JsonObject().put("d", id).put("t", timestamp).put("p", price).put("q", quantity);
+    }
+
+    private static JsonObject candle(long timestamp, double open, double close, double high, double low, double volume) {
+        return new JsonObject().put("t", timestamp).put("o", open).put("c", close).put("h", high).put("l", low).put("v", volume);
+    }
+
+    private static CandleBuffer candles(JsonObject... candles) {
+        CandleBuffer buffer = new CandleBuffer();
+        for (JsonObject candle : candles) buffer.add(candle);
+        return buffer;
+    }
+
+    private static long time(String time) {
+        return Instant.parse(time).toEpochMilli();
+    }
+
+    private static TradeBuffer trades() {
+        // unsorted and duplicated on purpose, the trade at exactly 60000 belongs to the first candle
+        TradeBuffer trades = new TradeBuffer();
+        trades.add(trade(5, 90_000, 11.5, 1));
+        trades.add(trade(2, 30_000, 10.1, 0.2));
+        trades.add(trade(3, 60_000, 9.9, 0.3));
+        trades.add(trade(1, 10_000, 10.0, 0.1));
+        trades.add(trade(4, 60_001, 11.0, 2));
+        trades.add(trade(2, 30_000, 10.1, 0.2));
+        return trades;
+    }
+
+    @Test
+    public void matchingCandlesPass() {
+        CandleBuffer candles = candles(
+                candle(60_000, 11.0, 11.5, 11.5, 11.0, 3),
+                candle(0, 10.0, 9.9, 10.1, 9.9, 0.6));
+
+        CheckReport report = ConsistencyChecker.check("BTC_USDT", "1m", candles, trades());
+
+        assertTrue(report.isPass(), report.getMismatches().toString());
+        assertEquals(2, report.getCandles());
+    }
+
+    @Test
+    public void mismatchesAreReportedPerCandle() {
+        CandleBuffer candles = candles(
+                candle(0, 10.0, 9.9, 10.2, 9.9, 0.6),
+                candle(60_000, 11.0, 11.5, 11.5, 11.0, 3.5));
+
+        CheckReport report = ConsistencyChecker.check("BTC_USDT", "1m", candles, trades());
+
+        assertFalse(report.isPass());
+        assertEquals(2, report.getMismatches().size());
+        assertTrue(report.getMismatches().get(0).contains("high doesn't match"));
+        assertTrue(report.getMismatches().get(1).contains("volume doesn't match"));
+    }
+
+    @Test
+    public void emptyPeriodFails() {
+        CandleBuffer candles = candles(candle(120_000, 11.0, 11.0, 11.0, 11.0, 0));
+
+        assertFalse(ConsistencyChecker.check("BTC_USDT", "1m", candles, trades()).isPass());
+    }
+
+    @Test
+    public void tradeBufferSortsAndDeduplicates() {
+        TradeBuffer trades = new TradeBuffer(4, 2, 2);
+        boolean[] seen = new boolean[5_000];
+        int distinct = 0;
+        Random random = new Random(7);
+        for (int i = 0; i < 10_000; i++) {
+            int id = random.nextInt(seen.length);
+            if (!seen[id]) distinct++;
+            seen[id] = true;
+            trades.add(id, id / 3, id, 1);
+        }
+        trades.sort();
+
+        assertEquals(distinct, trades.size());
+        for (int i = 1; i < trades.size(); i++) {
+            assertTrue(trades.timestamp(i - 1) < trades.timestamp(i)
+                    || (trades.timestamp(i - 1) == trades.timestamp(i) && trades.id(i - 1) < trades.id(i)));
+        }
+    }
+
+    @Test
+    public void decoderStreamsRecordsAcrossChunks() {
+        String body = "{\"code\":0,\"method\":\"public/get-trades\",\"result\":{\"instrument_name\":\"BTC_USDT\",\"data\":["
+                + "{\"dataTime\":1,\"d\":5,\"s\":\"BUY\",\"p\":11.5,\"q\":1,\"t\":90000,\"i\":\"BTC_USDT\"},"
+                + "{\"dataTime\":1,\"d\":1,\"s\":\"SELL\",\"p\":\"10.0\",\"q\":1.0E-1,\"t\":10000,\"i\":\"BTC_USDT\"}]}}";
+        TradeBuffer trades = new TradeBuffer();
+        JsonRecordDecoder decoder = JsonRecordDecoder.forTrades(trades);
+
+        // feed a few bytes at a time, as the response chunks arrive
+        Buffer bytes = Buffer.buffer(body);
+        for (int i = 0; i < bytes.length(); i += 7) decoder.write(bytes.getBuffer(i, Math.min(i + 7, bytes.length())));
+        decoder.end();
+
+        assertNull(decoder.getFailure());
+        assertEquals(2, decoder.getRecords());
+        assertEquals(2, trades.size());
+        assertEquals(1_150_000_000L, trades.price(0));
+        assertEquals(10_000_000L, trades.quantity(1));
+        assertEquals(10_000L, trades.timestamp(1));
+    }
+
+    @Test
+    public void decoderReportsTruncatedResponse() {
+        CandleBuffer candles = new CandleBuffer();
+        JsonRecordDecoder decoder = JsonRecordDecoder.forCandles(candles)
+                .decode(Buffer.buffer("{\"code\":0,\"result\":{\"data\":[{\"t\":0,\"o\":1,\"c\":1,\"h\":1,\"l\":1,\"v\":1}"));
+
+        assertEquals(1, decoder.getRecords());
+        assertNotNull(decoder.getFailure());
+        // nothing of a failed page is added
+        assertEquals(0, candles.size());
+    }
+
+    @Test
+    public void decoderAddsNothingOfAnInexactPage() {
+        // the second trade has more fraction digits than the scale
+        TradeBuffer trades = new TradeBuffer(16, 2, 2);
+        trades.add(5, 5, 100, 100);
+        JsonRecordDecoder decoder = JsonRecordDecoder.forTrades(trades).decode(Buffer.buffer(
+                "{\"code\":0,\"result\":{\"data\":[{\"d\":1,\"t\":1,\"p\":1.5,\"q\":1},{\"d\":2,\"t\":2,\"p\":1.505,\"q\":1}]}}"));
+
+        assertInstanceOf(ArithmeticException.class, decoder.getFailure());
+        // truncated back to the trades before the page, whose ids can be added again
+        assertEquals(1, trades.size());
+        assertTrue(trades.contains(5));
+        assertTrue(trades.add(1, 1, 150, 100));
+    }
+
+    @Test
+    public void truncatedTradesLeaveTheirIds() {
+        TradeBuffer trades = new TradeBuffer(16, 2, 2);
+        Random random = new Random(5);
+        long[] ids = new long[2000];
+        for (int i = 0; i < ids.length; i++) {
+            // colliding probes, and the empty key 0
+            ids[i] = i == 0 ? 0 : random.nextInt(1 << 20);
+            if (!trades.add(ids[i], random.nextInt(1000), 100, 100)) ids[i] = -1;
+        }
+        int kept = trades.size() / 2;
+        trades.truncate(kept);
+        assertEquals(kept, trades.size());
+        for (int i = 0, index = 0; i < ids.length; i++) {
+            if (ids[i] < 0) continue;
+            assertEquals(index++ < kept, trades.contains(ids[i]), "trade " + ids[i]);
+        }
+    }
+
+    @Test
+    public void aggregatorMatchesSweep() {
+        // three days of random trades with prices and quantities of 2 fraction digits
+        TradeBuffer trades = new TradeBuffer(1024, 2, 2);
+        Random random = new Random(11);
+        for (int i = 0; i < 20_000; i++) {
+            trades.add(i, random.nextInt(3 * 86_400) * 1_000L, 1_000 + random.nextInt(500), 1 + random.nextInt(100));
+        }
+        String[] timeframes = {"1m", "5m", "15m", "1h", "4h", "6h", "12h", "1D"};
+        long[] periods = new long[timeframes.length];
+        for (int i = 0; i < periods.length; i++) periods[i] = Timeframe.parse(timeframes[i]);
+        CandleAggregator aggregator = new CandleAggregator(trades).prepare(periods);
+
+        for (int t = 0; t < timeframes.length; t++) {
+            // candles built from the trades, every third one is off by one tick
+            CandleBuffer candles = new CandleBuffer(64, 2, 2);
+            for (long begin = 0; begin < 3 * 86_400_000L; begin += periods[t]) {
+                Ohlcv ohlcv = new Ohlcv();
+                for (int i = 0; i < trades.size(); i++) {
+                    if (trades.timestamp(i) > begin && trades.timestamp(i) <= begin + periods[t]) {
+                        ohlcv.add(trades.price(i), trades.quantity(i));
+                    }
+                }
+                long skew = candles.size() % 3 == 0 ? 1 : 0;
+                candles.add(begin, ohlcv.getOpen(), ohlcv.getClose(), ohlcv.getHigh() + skew, ohlcv.getLow(), ohlcv.getVolume());
+            }
+
+            CheckReport sweep = ConsistencyChecker.check("BTC_USDT", timeframes[t], candles, trades);
+            CheckReport aggregated = ConsistencyChecker.check("BTC_USDT", timeframes[t], candles, aggregator);
+            assertFalse(sweep.isPass());
+            assertEquals(sweep.getMismatches(), aggregated.getMismatches(), timeframes[t]);
+        }
+    }
+
+    @Test
+    public void monthlyCandlesFollowCalendarMonths() {
+        long jan = time("2024-01-01T00:00:00Z"), feb = time("2024-02-01T00:00:00Z"), mar = time("2024-03-01T00:00:00Z");
+        // the last hours of January and February, a 30 day month would end them early or late
+        TradeBuffer trades = new TradeBuffer();
+        trades.add(trade(1, time("2024-01-31T12:00:00Z"), 10, 1));
+        trades.add(trade(2, feb, 11, 1));
+        trades.add(trade(3, time("2024-02-29T23:00:00Z"), 12, 2));
+        trades.add(trade(4, mar, 13, 1));
+        trades.add(trade(5, time("2024-03-15T00:00:00Z"), 14, 1));
+        CandleBuffer candles = candles(
+                candle(jan, 10, 11, 11, 10, 2),
+                candle(feb, 12, 13, 13, 12, 3),
+                candle(mar, 14, 14, 14, 14, 1));
+
+        assertTrue(ConsistencyChecker.check("BTC_USDT", "1M", candles, trades).isPass());
+        assertTrue(ConsistencyChecker.checkParallel("BTC_USDT", "1M", candles, trades, ForkJoinPool.commonPool()).isPass());
+        CandleAggregator aggregator = new CandleAggregator(trades).prepare(86_400_000L);
+        assertTrue(ConsistencyChecker.check("BTC_USDT", "1M", candles, aggregator).isPass());
+    }
+
+    @Test
+    public void timeframeBoundaries() {
+        long jan = time("2024-01-01T00:00:00Z"), feb = time("2024-02-01T00:00:00Z"), mar = time("2024-03-01T00:00:00Z");
+        Timeframe month = Timeframe.of("1M");
+        assertFalse(month.isFixed());
+        assertSame(month, Timeframe.of("1M"));
+
+        Timeframe.Boundaries boundaries = month.boundaries(jan, time("2024-12-01T00:00:00Z"));
+        // a bucket covers (start, end]
+        assertEquals(jan, boundaries.start(feb));
+        assertEquals(feb, boundaries.start(feb + 1));
+        assertEquals(mar, boundaries.end(feb));
+        assertEquals(time("2025-01-01T00:00:00Z"), boundaries.end(time("2024-12-01T00:00:00Z")));
+        // outside of the precomputed range
+        assertEquals(time("2023-12-01T00:00:00Z"), boundaries.start(jan));
+        assertEquals(time("2025-02-01T00:00:00Z"), boundaries.end(time("2025-01-01T00:00:00Z")));
+
+        // quarters are aligned to the year
+        assertEquals(time("2024-04-01T00:00:00Z"), Timeframe.of("3M").start(time("2024-05-10T00:00:00Z")));
+        assertEquals(time("2024-07-01T00:00:00Z"), Timeframe.of("3M").end(time("2024-04-01T00:00:00Z")));
+
+        // fixed timeframes are aligned to the epoch
+        Timeframe week = Timeframe.of("7D");
+        assertTrue(week.isFixed());
+        assertEquals(7 * 86_400_000L, week.getMillis());
+        assertEquals(CandleAggregator.bucketStart(feb, week.getMillis()), week.boundaries(jan, mar).start(feb));
+        assertEquals(4 * 3_600_000L, Timeframe.parse("4h"));
+    }
+
+    @Test
+    public void parallelMatchesSerial() {
+        // one day of trades with wrong highs and lows, enough for the candle ranges to be split
+        MarketDataGenerator generator = new MarketDataGenerator(new JsonObject()
+                .put("seed", 3)
+                .put("instruments", new JsonArray().add("BTC_USDT"))
+                .put("trades_per_second", 2)
+                .put("duration", 86_400_000L)
+                .put("faults", new JsonObject().put("wrong_high_low", 0.1)));
+        TradeBuffer trades = generator.getTrades("BTC_USDT");
+        CandleBuffer candles = generator.getCandles("BTC_USDT", "1m");
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            CheckReport serial = ConsistencyChecker.check("BTC_USDT", "1m", candles, trades);
+            CheckReport parallel = ConsistencyChecker.checkParallel("BTC_USDT", "1m", candles, trades, pool);
+            assertFalse(serial.isPass());
+            assertEquals(serial.getCandles(), parallel.getCandles());
+            assertEquals(serial.getMismatches(), parallel.getMismatches());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void unorderedCandlesMatchSorted() {
+        MarketDataGenerator generator = new MarketDataGenerator(new JsonObject()
+                .put("seed", 7)
+                .put("instruments", new JsonArray().add("BTC_USDT"))
+                .put("trades_per_second", 1)
+                .put("duration", 3_600_000L)
+                .put("faults", new JsonObject().put("wrong_high_low", 0.2)));
+        TradeBuffer trades = generator.getTrades("BTC_USDT");
+        CandleBuffer candles = generator.getCandles("BTC_USDT", "1m");
+
+        // newest first, and shuffled
+        CandleBuffer reversed = new CandleBuffer(16, candles.priceScale(), candles.quantityScale());
+        CandleBuffer shuffled = new CandleBuffer(16, candles.priceScale(), candles.quantityScale());
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = candles.size() - 1; i >= 0; i--) {
+            indexes.add(i);
+            reversed.add(candles.timestamp(i), candles.open(i), candles.close(i), candles.high(i), candles.low(i), candles.volume(i));
+        }
+        Collections.shuffle(indexes, new Random(7));
+        for (int i : indexes) {
+            shuffled.add(candles.timestamp(i), candles.open(i), candles.close(i), candles.high(i), candles.low(i), candles.volume(i));
+        }
+
+        List<String> expected = new ArrayList<>(ConsistencyChecker.check("BTC_USDT", "1m", candles, trades).getMismatches());
+        assertFalse(expected.isEmpty());
+        Collections.sort(expected);
+        for (CandleBuffer unordered : Arrays.asList(reversed, shuffled)) {
+            List<String> mismatches = new ArrayList<>(ConsistencyChecker.check("BTC_USDT", "1m", unordered, trades).getMismatches());
+            Collections.sort(mismatches);
+            assertEquals(expected, mismatches);
+        }
+    }
+
+    @Test
+    public void incompleteParameterFails() {
+        assertFalse(ConsistencyChecker.check("BTC_USDT", "1m", null, trades()).isPass());
+    }
+}
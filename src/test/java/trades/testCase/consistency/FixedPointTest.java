@@ -0,0 +1,46 @@
+package trades.testCase.consistency;
+
+import org.junit.jupiter.api.Test;
+import trades.consistency.FixedPoint;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FixedPointTest {
+    @Test
+    public void parseIsExact() {
+        assertEquals(1_250_000_000L, FixedPoint.parse("12.5", 8));
+        assertEquals(-3L, FixedPoint.parse("-0.03", 2));
+        assertEquals(100L, FixedPoint.parse("1.0E-6", 8));
+        assertEquals(4_200L, FixedPoint.parse("4.2e3", 0));
+        assertEquals(7L, FixedPoint.parse("0.0700000000000", 2));
+        assertEquals(0L, FixedPoint.parse("0.000", 0));
+    }
+
+    @Test
+    public void parseMatchesBigDecimalValueOf() {
+        double[] values = {0.1, 0.2, 0.3, 29_000.57, 1e-8, 123_456.789, 0.000_150_7};
+        for (double value : values) {
+            long expected = BigDecimal.valueOf(value).movePointRight(8).longValueExact();
+            assertEquals(expected, FixedPoint.valueOf(value, 8), String.valueOf(value));
+        }
+    }
+
+    @Test
+    public void precisionLossAndOverflowFail() {
+        assertThrows(ArithmeticException.class, () -> FixedPoint.parse("0.123", 2));
+        assertThrows(ArithmeticException.class, () -> FixedPoint.parse("92233720368.54775808", 8));
+        assertThrows(ArithmeticException.class, () -> FixedPoint.add(Long.MAX_VALUE, 1));
+        assertThrows(NumberFormatException.class, () -> FixedPoint.parse("1.2.3", 2));
+        assertThrows(NumberFormatException.class, () -> FixedPoint.parse("-", 2));
+    }
+
+    @Test
+    public void rescaleAndFormat() {
+        assertEquals(1_500L, FixedPoint.rescale(15, 1, 3));
+        assertEquals(15L, FixedPoint.rescale(1_500, 3, 1));
+        assertThrows(ArithmeticException.class, () -> FixedPoint.rescale(1_501, 3, 1));
+        assertEquals("0.6", FixedPoint.toString(60_000_000, 8));
+    }
+}
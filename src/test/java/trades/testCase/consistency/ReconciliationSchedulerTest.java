@@ -0,0 +1,102 @@
+package trades.testCase.consistency;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import trades.consistency.CheckReport;
+import trades.consistency.ReconciliationScheduler;
+import trades.util.HttpClient;
+import trades.util.ReconciliationMetrics;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReconciliationSchedulerTest {
+    private static Vertx vertx;
+    private static Map<String, JsonObject> apiInfo;
+    private final static Map<String, AtomicInteger> tradeRequests = new ConcurrentHashMap<>();
+
+    @BeforeAll
+    static void setup() throws Exception {
+        vertx = Vertx.vertx();
+
+        // one trade per minute, one candle per minute holding exactly that trade
+        String trades = "{\"code\":0,\"result\":{\"data\":["
+                + "{\"d\":2,\"t\":90000,\"p\":2.5,\"q\":1},{\"d\":1,\"t\":30000,\"p\":1.5,\"q\":2}]}}";
+        String candles = "{\"code\":0,\"result\":{\"data\":["
+                + "{\"t\":0,\"o\":1.5,\"c\":1.5,\"h\":1.5,\"l\":1.5,\"v\":2},{\"t\":60000,\"o\":2.5,\"c\":2.5,\"h\":2.5,\"l\":2.5,\"v\":1}]}}";
+        HttpServer server = vertx.createHttpServer()
+                .requestHandler(req -> {
+                    if (req.path().endsWith("get-trades")) {
+                        tradeRequests.computeIfAbsent(req.getParam("instrument_name"), k -> new AtomicInteger()).incrementAndGet();
+                        req.response().end(trades);
+                    } else {
+                        req.response().end(candles);
+                    }
+                })
+                .listen(0, "localhost")
+                .toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+
+        apiInfo = new HashMap<>();
+        apiInfo.put("getTrades", new JsonObject().put("domain", "localhost").put("port", server.actualPort()).put("path", "/v2/public/get-trades"));
+        apiInfo.put("getCandleStick", new JsonObject().put("domain", "localhost").put("port", server.actualPort()).put("path", "/v2/public/get-candlestick"));
+        HttpClient.init(vertx, null);
+    }
+
+    @AfterAll
+    public static void done() {
+        HttpClient.close(vertx);
+        vertx.close();
+    }
+
+    // the suites run the class again in the same JVM, counts and meters start from zero for every test
+    @BeforeEach
+    void reset() {
+        tradeRequests.clear();
+        ReconciliationMetrics.init(vertx, null);
+    }
+
+    @AfterEach
+    void closeMetrics() {
+        ReconciliationMetrics.close(vertx);
+    }
+
+    @Test
+    public void timeframesShareTradePolling() throws Exception {
+        JsonObject config = new JsonObject().put("scheduler", new JsonObject()
+                .put("max_concurrency", 2)
+                .put("poll_interval", 20)
+                .put("poll_rounds", 3));
+        Map<String, List<String>> cases = new LinkedHashMap<>();
+        cases.put("BTC_USDT", Arrays.asList("1m", "5m", "1h"));
+        cases.put("ETH_CRO", Arrays.asList("1m", "5m", "1h"));
+
+        Map<String, Future<CheckReport>> reports = new ReconciliationScheduler(vertx, apiInfo, config).schedule(cases);
+        CompositeFuture.join(new ArrayList<>(reports.values())).toCompletionStage().toCompletableFuture().get(30, TimeUnit.SECONDS);
+
+        assertEquals(6, reports.size());
+        assertTrue(reports.get("BTC_USDT(1m)").result().isPass());
+        assertFalse(reports.get("ETH_CRO(5m)").result().isPass());
+        assertEquals(3, tradeRequests.get("BTC_USDT").get());
+        assertEquals(3, tradeRequests.get("ETH_CRO").get());
+
+        // the 5m and 1h candles miss the second trade, the rounds fetched every trade three times
+        String metrics = ReconciliationMetrics.scrape(vertx);
+        assertTrue(metrics.contains("reconciliation_http_requests_seconds_bucket{endpoint=\"/v2/public/get-trades\",status=\"200\""), metrics);
+        assertTrue(metrics.matches("(?s).*reconciliation_trades_ingested_total\\{instrument=\"BTC_USDT\",} 6\\.0.*"), metrics);
+        assertTrue(metrics.matches("(?s).*reconciliation_trades_duplicates_total\\{instrument=\"BTC_USDT\",} 4\\.0.*"), metrics);
+        assertTrue(metrics.matches("(?s).*reconciliation_mismatches_total\\{field=\"volume\",instrument=\"ETH_CRO\",} 2\\.0.*"), metrics);
+        assertFalse(metrics.contains("field=\"open\""), metrics);
+    }
+}
@@ -0,0 +1,339 @@
+package trades.testCase.consistency;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import trades.consistency.AdaptivePoller;
+import trades.consistency.CheckReport;
+import trades.consistency.InstrumentScale;
+import trades.consistency.JsonRecordDecoder;
+import trades.consistency.MarketDataSource;
+import trades.consistency.PollingMarketDataSource;
+import trades.consistency.StreamingReconciler;
+import trades.consistency.WebSocketMarketDataSource;
+import trades.util.HttpClient;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StreamingReconcilerTest {
+    private static Vertx vertx;
+    private static Map<String, JsonObject> apiInfo;
+    private static int port;
+    private static final String TRADES = "[{\"d\":3,\"t\":180000,\"p\":2.0,\"q\":1},{\"d\":2,\"t\":150000,\"p\":3.0,\"q\":1},"
+            + "{\"d\":1,\"t\":130000,\"p\":2.5,\"q\":0.5},{\"d\":4,\"t\":90000,\"p\":9.0,\"q\":1}]";
+    private static final String CANDLES = "[{\"t\":60000,\"o\":9.0,\"c\":9.0,\"h\":9.0,\"l\":9.0,\"v\":1},"
+            + "{\"t\":120000,\"o\":2.5,\"c\":2.0,\"h\":3.0,\"l\":2.0,\"v\":2.5}]";
+    // channels of the last subscription, completed with the heartbeat id once the client answers it
+    private static volatile JsonObject subscription;
+    private static volatile CompletableFuture<Long> heartbeat;
+    // subscriptions answered by the stub, the first ones are followed by a close while disconnects is positive
+    private static final AtomicInteger subscriptions = new AtomicInteger();
+    private static final AtomicInteger disconnects = new AtomicInteger();
+
+    @BeforeAll
+    static void setup() throws Exception {
+        vertx = Vertx.vertx();
+
+        // trade 4 is older than the reconciler, the 120000 candle holds trades 1 to 3
+        String trades = "{\"code\":0,\"result\":{\"data\":" + TRADES + "}}";
+        // the ETH_CRO page has a trade after those pushed
+        String backfill = "{\"code\":0,\"result\":{\"data\":[{\"d\":5,\"t\":190000,\"p\":2.0,\"q\":1}," + TRADES.substring(1) + "}}";
+        String candles = "{\"code\":0,\"result\":{\"data\":" + CANDLES + "}}";
+        HttpServer server = vertx.createHttpServer()
+                .requestHandler(req -> {
+                    if (!req.path().endsWith("get-trades")) req.response().end(candles);
+                    else req.response().end("ETH_CRO".equals(req.getParam("instrument_name")) ? backfill : trades);
+                })
+                .webSocketHandler(ws -> ws.textMessageHandler(message -> {
+                    JsonObject request = new JsonObject(message);
+                    if ("public/respond-heartbeat".equals(request.getString("method"))) {
+                        heartbeat.complete(request.getLong("id"));
+                        return;
+                    }
+                    // market data stub: push the trades and candles of the subscribed channels, then a heartbeat
+                    subscription = request;
+                    for (Object channel : request.getJsonObject("params").getJsonArray("channels")) {
+                        String data = channel.toString().startsWith("trade.") ? TRADES : CANDLES;
+                        ws.writeTextMessage("{\"id\":-1,\"method\":\"subscribe\",\"code\":0,\"result\":{\"subscription\":\""
+                                + channel + "\",\"data\":" + data + "}}");
+                    }
+                    ws.writeTextMessage("{\"id\":7,\"method\":\"public/heartbeat\",\"code\":0}");
+                    subscriptions.incrementAndGet();
+                    if (disconnects.getAndUpdate(n -> Math.max(n - 1, 0)) > 0) ws.close();
+                }))
+                .listen(0, "localhost")
+                .toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        port = server.actualPort();
+
+        apiInfo = new HashMap<>();
+        apiInfo.put("getTrades", new JsonObject().put("domain", "localhost").put("port", server.actualPort()).put("path", "/v2/public/get-trades"));
+        apiInfo.put("getCandleStick", new JsonObject().put("domain", "localhost").put("port", server.actualPort()).put("path", "/v2/public/get-candlestick"));
+        HttpClient.init(vertx, null);
+    }
+
+    @AfterAll
+    public static void done() {
+        HttpClient.close(vertx);
+        vertx.close();
+    }
+
+    // source whose trades and candles are pushed by the test
+    private static final class PushedSource implements MarketDataSource {
+        JsonRecordDecoder.RecordHandler trades;
+        final Map<String, JsonRecordDecoder.RecordHandler> candles = new HashMap<>();
+        boolean pushesCandles = true;
+        boolean paused;
+
+        @Override
+        public MarketDataSource tradeHandler(JsonRecordDecoder.RecordHandler handler) {
+            trades = handler;
+            return this;
+        }
+
+        @Override
+        public MarketDataSource candleHandler(String timeframe, JsonRecordDecoder.RecordHandler handler) {
+            candles.put(timeframe, handler);
+            return this;
+        }
+
+        @Override
+        public boolean pushesCandles() {
+            return pushesCandles;
+        }
+
+        @Override
+        public Future<Void> start() {
+            return Future.succeededFuture();
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public MarketDataSource pause() {
+            paused = true;
+            return this;
+        }
+
+        @Override
+        public MarketDataSource resume() {
+            paused = false;
+            return this;
+        }
+    }
+
+    private static long time(String time) {
+        return Instant.parse(time).toEpochMilli();
+    }
+
+    @Test
+    public void closedCandlesAreCheckedAndDropped() throws Exception {
+        AtomicLong now = new AtomicLong(100_000);
+        List<CheckReport> reports = new CopyOnWriteArrayList<>();
+        JsonObject config = new JsonObject().put("streaming", new JsonObject().put("grace", 5_000));
+        PollingMarketDataSource source = new PollingMarketDataSource(
+                AdaptivePoller.fixed(vertx, apiInfo, "BTC_USDT", InstrumentScale.DEFAULT, 2000));
+        StreamingReconciler reconciler = new StreamingReconciler(vertx, apiInfo, config, "BTC_USDT",
+                Arrays.asList("1m", "1M"), reports::add, now::get, source);
+
+        // overlapping pages are deduplicated once for every timeframe
+        source.poll().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        source.poll().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        assertEquals(1, reconciler.getOpenCandles());
+
+        // still within the grace time
+        now.set(184_999);
+        reconciler.finalizeClosed().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        assertTrue(reports.isEmpty());
+
+        now.set(185_000);
+        reconciler.finalizeClosed().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        assertEquals(1, reports.size());
+        assertTrue(reports.get(0).isPass(), reports.get(0).getMismatches().toString());
+        assertEquals(0, reconciler.getOpenCandles());
+
+        reconciler.add(5, 170_000, 100_000_000, 100_000_000);
+        assertEquals(1, reconciler.getLateTrades());
+    }
+
+    @Test
+    public void monthlyCandlesEndAtTheCalendarMonth() throws Exception {
+        long feb = time("2024-02-01T00:00:00Z"), mar = time("2024-03-01T00:00:00Z");
+        AtomicLong now = new AtomicLong(time("2024-01-15T00:00:00Z"));
+        List<CheckReport> reports = new CopyOnWriteArrayList<>();
+        PushedSource source = new PushedSource();
+        StreamingReconciler reconciler = new StreamingReconciler(vertx, null, new JsonObject(), "BTC_USDT",
+                Collections.singletonList("1M"), reports::add, now::get, source);
+
+        // February 2024 has 29 days, the trade at exactly March 1st closes it
+        long unit = 100_000_000L;
+        source.trades.handle(new long[]{1, time("2024-02-10T00:00:00Z"), 10 * unit, unit});
+        source.trades.handle(new long[]{2, time("2024-02-29T23:00:00Z"), 12 * unit, 2 * unit});
+        source.trades.handle(new long[]{3, mar, 13 * unit, unit});
+        source.trades.handle(new long[]{4, time("2024-03-02T00:00:00Z"), 14 * unit, unit});
+        source.candles.get("1M").handle(new long[]{feb, 10 * unit, 13 * unit, 13 * unit, 10 * unit, 4 * unit});
+        assertEquals(2, reconciler.getOpenCandles());
+
+        now.set(mar + 5_000);
+        reconciler.finalizeClosed().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        assertEquals(1, reports.size());
+        assertTrue(reports.get(0).isPass(), reports.get(0).getMismatches().toString());
+        assertEquals(1, reconciler.getOpenCandles());
+    }
+
+    @Test
+    public void tradesAreDeduplicatedWithinTheWindow() throws Exception {
+        AtomicLong now = new AtomicLong(100_000);
+        List<CheckReport> reports = new CopyOnWriteArrayList<>();
+        PushedSource source = new PushedSource();
+        JsonObject config = new JsonObject().put("streaming", new JsonObject().put("grace", 0).put("dedup_window", 60_000));
+        StreamingReconciler reconciler = new StreamingReconciler(vertx, null, config, "BTC_USDT",
+                Collections.singletonList("1m"), reports::add, now::get, source);
+
+        // the same trade twice, then again once two windows have passed: it is only counted once
+        source.trades.handle(new long[]{1, 130_000, 2, 1});
+        source.trades.handle(new long[]{1, 130_000, 2, 1});
+        source.trades.handle(new long[]{2, 250_000, 3, 1});
+        source.trades.handle(new long[]{1, 130_000, 2, 1});
+        source.candles.get("1m").handle(new long[]{120_000, 2, 2, 2, 2, 1});
+
+        now.set(180_000);
+        reconciler.finalizeClosed().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        assertEquals(1, reports.size());
+        assertTrue(reports.get(0).isPass(), reports.get(0).getMismatches().toString());
+        assertEquals(0, reconciler.getLateTrades());
+    }
+
+    @Test
+    public void candlesAreReportedWhenGetCandlestickFails() throws Exception {
+        AtomicLong now = new AtomicLong(100_000);
+        List<CheckReport> reports = new CopyOnWriteArrayList<>();
+        PushedSource source = new PushedSource();
+        source.pushesCandles = false;
+        // nothing listens on port 1
+        Map<String, JsonObject> unreachable = Collections.singletonMap("getCandleStick",
+                new JsonObject().put("domain", "localhost").put("port", 1).put("path", "/v2/public/get-candlestick"));
+        JsonObject config = new JsonObject().put("streaming", new JsonObject().put("grace", 0));
+        StreamingReconciler reconciler = new StreamingReconciler(vertx, unreachable, config, "BTC_USDT",
+                Collections.singletonList("1m"), reports::add, now::get, source);
+
+        source.trades.handle(new long[]{1, 130_000, 2, 1});
+        source.trades.handle(new long[]{2, 190_000, 2, 1});
+        now.set(240_000);
+        CompletableFuture<Void> finalized = reconciler.finalizeClosed().toCompletionStage().toCompletableFuture();
+        try {
+            finalized.get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException expected) {
+            // the fetch failed, the candles are still reported
+        }
+        assertEquals(2, reports.size());
+        for (CheckReport report : reports) {
+            assertFalse(report.isPass());
+            assertTrue(report.getMismatches().get(0).contains("get-candlestick error"), report.getMismatches().toString());
+        }
+        assertEquals(0, reconciler.getOpenCandles());
+    }
+
+    @Test
+    public void pendingCandlesPauseTheSource() throws Exception {
+        AtomicLong now = new AtomicLong(0);
+        PushedSource source = new PushedSource();
+        JsonObject config = new JsonObject().put("streaming", new JsonObject().put("grace", 0).put("max_pending", 2));
+        StreamingReconciler reconciler = new StreamingReconciler(vertx, null, config, "BTC_USDT",
+                Collections.singletonList("1m"), r -> { }, now::get, source);
+
+        // a third open candle is over the bound
+        for (long minute = 0; minute < 3; minute++) source.trades.handle(new long[]{minute, minute * 60_000 + 1, 1, 1});
+        assertTrue(source.paused);
+        assertTrue(reconciler.isBackpressured());
+
+        // resumed once the closed candles are reported
+        now.set(120_000);
+        reconciler.finalizeClosed().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        assertEquals(1, reconciler.getOpenCandles());
+        assertFalse(source.paused);
+    }
+
+    @Test
+    public void webSocketSourceFeedsTradesAndCandles() throws Exception {
+        heartbeat = new CompletableFuture<>();
+        AtomicLong now = new AtomicLong(100_000);
+        List<CheckReport> reports = new CopyOnWriteArrayList<>();
+        JsonObject config = new JsonObject()
+                .put("streaming", new JsonObject().put("grace", 5_000).put("poll_interval", 3_600_000))
+                .put("websocket", new JsonObject().put("domain", "localhost").put("port", port).put("path", "/v2/market")
+                        .put("ssl", false).put("subscribe_delay", 0));
+        WebSocketMarketDataSource source = new WebSocketMarketDataSource(vertx, null, config, "BTC_USDT", InstrumentScale.DEFAULT);
+        // candles are pushed by the source, get-candlestick is never queried
+        StreamingReconciler reconciler = new StreamingReconciler(vertx, null, config, "BTC_USDT",
+                Collections.singletonList("1m"), reports::add, now::get, source);
+
+        // nothing is read from the socket while paused
+        source.pause();
+        reconciler.start();
+        Thread.sleep(500);
+        assertFalse(heartbeat.isDone());
+        assertEquals(0, reconciler.getOpenCandles());
+
+        source.resume();
+        assertEquals(7L, heartbeat.get(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("trade.BTC_USDT", "candlestick.1m.BTC_USDT"),
+                subscription.getJsonObject("params").getJsonArray("channels").getList());
+        assertEquals(1, reconciler.getOpenCandles());
+
+        now.set(185_000);
+        reconciler.finalizeClosed().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        reconciler.stop();
+        assertEquals(1, reports.size());
+        assertTrue(reports.get(0).isPass(), reports.get(0).getMismatches().toString());
+        assertEquals(0, reconciler.getOpenCandles());
+    }
+
+    @Test
+    public void webSocketReconnectsAreBackfilledAndTheSourceRestarts() throws Exception {
+        heartbeat = new CompletableFuture<>();
+        subscriptions.set(0);
+        disconnects.set(1);
+        JsonObject config = new JsonObject()
+                .put("websocket", new JsonObject().put("domain", "localhost").put("port", port).put("path", "/v2/market")
+                        .put("ssl", false).put("subscribe_delay", 0).put("reconnect_interval", 100));
+        WebSocketMarketDataSource source = new WebSocketMarketDataSource(vertx, apiInfo, config, "ETH_CRO", InstrumentScale.DEFAULT);
+        AtomicInteger trades = new AtomicInteger();
+        source.tradeHandler(record -> trades.incrementAndGet());
+
+        // pushed twice around the disconnect, then backfilled with the trade of the get-trades page after those pushed
+        source.start().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        await(() -> trades.get() == 9 && subscriptions.get() == 2);
+        Thread.sleep(200);
+        assertEquals(9, trades.get());
+        assertEquals(1, source.getGapCount());
+
+        // the client is created again, a new start is not a reconnect
+        source.stop();
+        source.start().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        await(() -> subscriptions.get() == 3);
+        assertEquals(1, source.getGapCount());
+        source.stop();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) Thread.sleep(20);
+        assertTrue(condition.getAsBoolean());
+    }
+}
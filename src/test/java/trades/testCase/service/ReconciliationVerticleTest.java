@@ -0,0 +1,186 @@
+package trades.testCase.service;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import trades.service.CaseMatrix;
+import trades.service.ReconciliationVerticle;
+import trades.util.Config;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReconciliationVerticleTest {
+    private static Vertx vertx;
+    private static WebClient client;
+    private static int port;
+
+    @BeforeAll
+    static void setup() throws Exception {
+        vertx = Vertx.vertx();
+        client = WebClient.create(vertx);
+
+        // the service reconciles the cases against a stub exchange on a free port
+        JsonObject config = Config.loadConfig("config.json");
+        config.put("stub", config.getJsonObject("stub").copy()
+                .put("enabled", true)
+                .put("port", 0)
+                .put("seed", 7)
+                .put("instruments", new JsonArray().add("BTC_USDT").add("ETH_CRO"))
+                .put("trades_per_second", 2)
+                .put("duration", 1_800_000)
+                .put("price_decimals", 2)
+                // more than the default scale of config.json, decoded exactly with the scale listed by get-instruments
+                .put("quantity_decimals", 10));
+        config.put("scheduler", new JsonObject().put("poll_interval", 10).put("poll_rounds", 1));
+        config.put("metrics", new JsonObject().put("enabled", true));
+        // instruments are discovered with get-instruments and spread over rate limited shards
+        config.put("service", new JsonObject()
+                .put("port", 0)
+                .put("discover", true)
+                .put("timeframes", new JsonArray().add("1m").add("1h"))
+                .put("sharding", new JsonObject().put("shards", 2).put("rate_limit", 50)));
+        config.remove("polling");
+
+        ReconciliationVerticle service = new ReconciliationVerticle();
+        vertx.deployVerticle(service, new DeploymentOptions().setConfig(config))
+                .toCompletionStage().toCompletableFuture().get(60, TimeUnit.SECONDS);
+        port = service.actualPort();
+    }
+
+    @AfterAll
+    public static void done() {
+        client.close();
+        vertx.close();
+    }
+
+    @Test
+    public void casesAreServedOverHttp() throws Exception {
+        JsonObject result = get("/reconciliations/BTC_USDT/1h?wait=true").bodyAsJsonObject();
+        assertEquals("PASS", result.getString("status"), result.encode());
+        assertEquals(1, result.getLong("cycle"));
+        assertTrue(result.getInteger("candles") > 0);
+
+        assertEquals(404, get("/reconciliations/BTC_USDT/2h").statusCode());
+        assertEquals(404, get("/unknown").statusCode());
+        assertTrue(get("/metrics").bodyAsString().contains("reconciliation_candles_total"));
+
+        // a cycle is started on request, the results of the previous one are served until it is done
+        JsonObject run = client.post(port, "localhost", "/reconciliations/run").send()
+                .toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS).bodyAsJsonObject();
+        assertTrue(run.getLong("cycle") >= 1);
+        assertEquals("PASS", get("/reconciliations/ETH_CRO/1m?wait=true").bodyAsJsonObject().getString("status"));
+
+        JsonObject all = get("/reconciliations").bodyAsJsonObject();
+        assertEquals(4, all.getJsonArray("cases").size());
+        assertEquals(4, all.getJsonArray("results").size());
+    }
+
+    @Test
+    public void streamingModeReportsEveryClosedCandle() throws Exception {
+        // the stub exchange and the reconcilers share a clock, so candles close as the test moves it
+        long start = 1_650_000_000_000L;
+        AtomicLong now = new AtomicLong(start + 1_000);
+        JsonObject config = Config.loadConfig("config.json");
+        config.put("stub", config.getJsonObject("stub").copy()
+                .put("enabled", true)
+                .put("port", 0)
+                .put("instruments", new JsonArray().add("BTC_USDT"))
+                .put("start", start)
+                .put("trades_per_second", 2)
+                .put("duration", 600_000));
+        config.put("streaming", new JsonObject().put("source", "rest").put("poll_interval", 50).put("grace", 5_000));
+        // the cache tells closed candles by the wall clock
+        config.put("cache", new JsonObject().put("enabled", false));
+        config.put("metrics", new JsonObject().put("enabled", false));
+        config.put("service", new JsonObject()
+                .put("mode", "streaming")
+                .put("port", 0)
+                .put("discover", true)
+                .put("timeframes", new JsonArray().add("1m")));
+        config.remove("polling");
+
+        // its own Vertx, the HTTP client and cache of the batch service are per Vertx
+        Vertx streaming = Vertx.vertx();
+        try {
+            ReconciliationVerticle service = new ReconciliationVerticle().clock(now::get);
+            streaming.deployVerticle(service, new DeploymentOptions().setConfig(config))
+                    .toCompletionStage().toCompletableFuture().get(60, TimeUnit.SECONDS);
+            WebClient streamingClient = WebClient.create(streaming);
+            String uri = "/reconciliations/BTC_USDT/1m?wait=true";
+
+            // the first complete candle starts at the next minute, it is checked once the grace time has passed too
+            CompletableFuture<HttpResponse<Buffer>> first = streamingClient.get(service.actualPort(), "localhost", uri).send()
+                    .toCompletionStage().toCompletableFuture();
+            advance(now, start + 121_000);
+            advance(now, start + 126_000);
+            JsonObject result = first.get(30, TimeUnit.SECONDS).bodyAsJsonObject();
+            assertEquals("PASS", result.getString("status"), result.encode());
+            assertEquals(1, result.getInteger("candles"));
+
+            // the next candle is counted on top of the first
+            CompletableFuture<HttpResponse<Buffer>> second = streamingClient.get(service.actualPort(), "localhost", uri).send()
+                    .toCompletionStage().toCompletableFuture();
+            advance(now, start + 181_000);
+            advance(now, start + 186_000);
+            result = second.get(30, TimeUnit.SECONDS).bodyAsJsonObject();
+            assertEquals("PASS", result.getString("status"), result.encode());
+            assertEquals(2, result.getInteger("candles"));
+            assertEquals(0, result.getInteger("failed_candles"));
+        } finally {
+            streaming.close().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void nodesSplitInstruments() throws Exception {
+        JsonArray instruments = new JsonArray();
+        for (int i = 0; i < 200; i++) instruments.add(String.format("SYN%03d_USDT", i));
+
+        Set<String> assigned = new HashSet<>();
+        for (int node = 0; node < 3; node++) {
+            JsonObject config = new JsonObject().put("service", new JsonObject()
+                    .put("instruments", instruments)
+                    .put("timeframes", new JsonArray().add("1m"))
+                    .put("sharding", new JsonObject().put("nodes", 3).put("node", node).put("shards", 4)));
+            CaseMatrix matrix = CaseMatrix.load(vertx, new HashMap<>(), config)
+                    .toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+
+            // about a third of the instruments each, every shard gets some
+            assertTrue(matrix.getInstruments() > 40 && matrix.getInstruments() < 100, String.valueOf(matrix.getInstruments()));
+            for (Map<String, List<String>> shard : matrix.getShards()) {
+                assertFalse(shard.isEmpty());
+                for (String instrument : shard.keySet()) assertTrue(assigned.add(instrument), instrument);
+            }
+        }
+        assertEquals(200, assigned.size());
+
+        // the matrix defaults to the parameter values of get-candlestick in config.json
+        JsonObject config = Config.loadConfig("config.json");
+        CaseMatrix matrix = CaseMatrix.load(vertx, Config.apiInfo(config), new JsonObject())
+                .toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        assertEquals(3, matrix.getInstruments());
+        assertEquals(12, matrix.getShards().get(0).values().iterator().next().size());
+    }
+
+    // move the clock, then give the reconcilers a few polls to catch up
+    private static void advance(AtomicLong now, long time) throws InterruptedException {
+        now.set(time);
+        Thread.sleep(500);
+    }
+
+    private static HttpResponse<Buffer> get(String uri) throws Exception {
+        return client.get(port, "localhost", uri).send().toCompletionStage().toCompletableFuture().get(30, TimeUnit.SECONDS);
+    }
+}
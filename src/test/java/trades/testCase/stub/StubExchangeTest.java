@@ -0,0 +1,134 @@
+package trades.testCase.stub;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import trades.consistency.CandleBuffer;
+import trades.consistency.CheckReport;
+import trades.consistency.ReconciliationScheduler;
+import trades.consistency.TradeBuffer;
+import trades.stub.MarketDataGenerator;
+import trades.stub.StubExchange;
+import trades.util.Config;
+import trades.util.HttpClient;
+import trades.util.ResponseCache;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StubExchangeTest {
+    private final static List<String> TIMEFRAMES = Arrays.asList("1m", "5m", "1h");
+
+    private static Vertx vertx;
+
+    @BeforeAll
+    static void setup() {
+        vertx = Vertx.vertx();
+        HttpClient.init(vertx, null);
+    }
+
+    @AfterAll
+    public static void done() {
+        HttpClient.close(vertx);
+        vertx.close();
+    }
+
+    private static JsonObject options() {
+        return new JsonObject()
+                .put("port", 0)
+                .put("seed", 7)
+                .put("instruments", new JsonArray().add("BTC_USDT").add("ETH_CRO"))
+                .put("trades_per_second", 2)
+                .put("duration", 1_800_000)
+                .put("page_size", 100_000);
+    }
+
+    @Test
+    public void generatorIsDeterministic() {
+        MarketDataGenerator a = new MarketDataGenerator(options());
+        MarketDataGenerator b = new MarketDataGenerator(options());
+        MarketDataGenerator other = new MarketDataGenerator(options().put("seed", 8));
+
+        TradeBuffer trades = a.getTrades("BTC_USDT");
+        assertTrue(trades.size() > 3000);
+        assertEquals(trades.toJson(), b.getTrades("BTC_USDT").toJson());
+        assertNotEquals(trades.toJson(), other.getTrades("BTC_USDT").toJson());
+        assertEquals(a.getCandles("ETH_CRO", "5m").toJson(), b.getCandles("ETH_CRO", "5m").toJson());
+
+        // 30 minutes of trades from a minute boundary
+        assertEquals(30, a.getCandles("BTC_USDT", "1m").size());
+    }
+
+    @Test
+    public void cleanDataPasses() throws Exception {
+        Map<String, Future<CheckReport>> reports = reconcile(options());
+        for (Map.Entry<String, Future<CheckReport>> report : reports.entrySet()) {
+            assertTrue(report.getValue().result().isPass(), report.getKey() + ": " + report.getValue().result().getMismatches());
+        }
+    }
+
+    @Test
+    public void injectedFaultsAreDetected() throws Exception {
+        JsonObject wrongHighLow = options().put("faults", new JsonObject().put("wrong_high_low", 1.0));
+        CheckReport report = reconcile(wrongHighLow).get("BTC_USDT(1m)").result();
+        assertEquals(report.getCandles(), report.getMismatches().size());
+        for (String mismatch : report.getMismatches()) assertTrue(mismatch.matches(".*(high|low) doesn't match.*"), mismatch);
+
+        JsonObject missingTrades = options().put("faults", new JsonObject().put("missing_trades", 0.05));
+        report = reconcile(missingTrades).get("ETH_CRO(1h)").result();
+        assertFalse(report.isPass());
+        assertTrue(report.getMismatches().get(0).contains("volume doesn't match"));
+    }
+
+    @Test
+    public void lateTradesArePublishedAfterTheDelay() {
+        JsonObject options = options().put("faults", new JsonObject().put("late_trades", 0.1).put("late_delay", 60_000));
+        MarketDataGenerator generator = new MarketDataGenerator(options);
+        TradeBuffer trades = generator.getTrades("BTC_USDT");
+        long now = trades.timestamp(trades.size() / 2);
+
+        int[] page = generator.latestTrades("BTC_USDT", now, Integer.MAX_VALUE);
+        int late = 0;
+        for (int trade : page) assertTrue(trades.timestamp(trade) <= now);
+        for (int i = 0; i < trades.size() && trades.timestamp(i) <= now; i++) late++;
+        late -= page.length;
+        assertTrue(late > 0, "some trades before now are not published yet");
+
+        // every trade is published once the delay has passed
+        page = generator.latestTrades("BTC_USDT", Long.MAX_VALUE, Integer.MAX_VALUE);
+        assertEquals(trades.size(), page.length);
+
+        CandleBuffer candles = generator.getCandles("BTC_USDT", "1m");
+        assertEquals(30, candles.size());
+    }
+
+    // run the scheduler against a stub exchange with the options
+    private static Map<String, Future<CheckReport>> reconcile(JsonObject options) throws Exception {
+        StubExchange stub = new StubExchange(vertx, options);
+        // a stub may reuse the port of the previous one, its candles are not cached
+        ResponseCache.init(vertx, null);
+        stub.start().toCompletionStage().toCompletableFuture().get(30, TimeUnit.SECONDS);
+        try {
+            JsonObject config = Config.loadConfig("config.json");
+            config.put("stub", options.copy().put("enabled", true).put("port", stub.actualPort()));
+            config.put("scale", new JsonObject().put("default", new JsonObject().put("price", 2).put("quantity", 4)));
+            config.put("scheduler", new JsonObject().put("poll_interval", 10).put("poll_rounds", 1));
+            config.remove("polling");
+
+            Map<String, List<String>> cases = new LinkedHashMap<>();
+            for (String instrument : stub.getGenerator().getInstruments()) cases.put(instrument, TIMEFRAMES);
+            Map<String, Future<CheckReport>> reports = new ReconciliationScheduler(vertx, Config.apiInfo(config), config).schedule(cases);
+            CompositeFuture.all(new ArrayList<>(reports.values())).toCompletionStage().toCompletableFuture().get(60, TimeUnit.SECONDS);
+            return reports;
+        } finally {
+            stub.close().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        }
+    }
+}